@@ -0,0 +1,90 @@
+package com.itchsearch;
+
+import com.itchsearch.model.GameDocument;
+import com.itchsearch.util.BinaryCorpusWriter;
+import com.itchsearch.util.CorpusReader;
+import com.itchsearch.util.TextPreprocessor;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+//Converts a TRECTEXT corpus once into the binary corpus format, which IndexBuilderMain --input= reads without
+//parsing tags and lines. --analyzed also stores every game's stemmed title and text, so rebuilds skip the
+//TextPreprocessor as well. Afterwards both files are read back once and the read times compared.
+//Usage: BinaryCorpusMain [--input=<trectext>] [--output=data/corpus.bin] [--analyzed]
+public class BinaryCorpusMain {
+
+    public static void main(String[] args) {
+        boolean analyzed = Arrays.asList(args).contains("--analyzed");
+
+        try {
+            Path basePath = Paths.get(System.getProperty("user.dir"));
+            Path inputPath = Paths.get(option(args, "--input=",
+                    basePath.resolve("src/main/resources/data/merged_itchio_dataset.trectext").toString()));
+            Path outputPath = basePath.resolve(option(args, "--output=", "data/corpus.bin"));
+
+            System.out.println("Input file:  " + inputPath);
+            System.out.println("Output file: " + outputPath);
+            System.out.println("Analyzed:    " + (analyzed ? "yes (stemmed title and text stored)" : "no"));
+
+            TextPreprocessor preprocessor = new TextPreprocessor();
+            long start = System.nanoTime();
+            try (CorpusReader reader = CorpusReader.open(inputPath, preprocessor);
+                 BinaryCorpusWriter writer = new BinaryCorpusWriter(outputPath, analyzed ? preprocessor : null)) {
+                GameDocument doc;
+                while ((doc = reader.nextDocument()) != null) {
+                    writer.write(doc);
+                }
+                writer.finish();
+                System.out.print("Wrote " + writer.getCount() + " documents");
+            }
+            System.out.println(" (" + Files.size(outputPath) / (1 << 20) + " MB, input "
+                    + Files.size(inputPath) / (1 << 20) + " MB) in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+
+            //What an index build spends on reading the corpus, before and after conversion
+            readTime(inputPath, preprocessor);
+            readTime(outputPath, preprocessor);
+        } catch (IOException e) {
+            System.err.println("I/O error: " + e.getMessage());
+        }
+    }
+
+    //Time to read every document of a corpus, and to also get the stemmed title and text IndexBuilderMain indexes
+    private static void readTime(Path corpus, TextPreprocessor preprocessor) throws IOException {
+        long start = System.nanoTime();
+        long chars = 0;
+        int count = 0;
+        try (CorpusReader reader = CorpusReader.open(corpus, preprocessor)) {
+            GameDocument doc;
+            while ((doc = reader.nextDocument()) != null) {
+                chars += doc.getText().length();
+                count++;
+            }
+        }
+        long parsed = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        try (CorpusReader reader = CorpusReader.open(corpus, preprocessor)) {
+            GameDocument doc;
+            while ((doc = reader.nextDocument()) != null) {
+                String title = reader.stemmedTitle() != null ? reader.stemmedTitle()
+                        : preprocessor.preprocess(doc.getTitle());
+                String text = reader.stemmedText() != null ? reader.stemmedText()
+                        : preprocessor.preprocess(doc.getText());
+                chars += title.length() + text.length();
+            }
+        }
+        long analyzed = System.nanoTime() - start;
+
+        System.out.println(String.format("%-40s %8d docs  read %7d ms  read+analyze %7d ms  (%d chars)",
+                corpus.getFileName(), count, parsed / 1_000_000, analyzed / 1_000_000, chars));
+    }
+
+    private static String option(String[] args, String prefix, String defaultValue) {
+        return Arrays.stream(args).filter(arg -> arg.startsWith(prefix))
+                .map(arg -> arg.substring(prefix.length())).findFirst().orElse(defaultValue);
+    }
+}
@@ -1,17 +1,21 @@
 package com.itchsearch;
 
 import com.itchsearch.model.GameDocument;
+import com.itchsearch.service.CollectionStats;
+import com.itchsearch.util.CorpusReader;
+import com.itchsearch.util.LuceneDocumentBuilder;
+import com.itchsearch.util.NearDuplicateDetector;
+import com.itchsearch.util.RandomIndexVectorizer;
+import com.itchsearch.util.ShardRouter;
+import com.itchsearch.util.SuggestDictionaryBuilder;
 import com.itchsearch.util.TextPreprocessor;
-import com.itchsearch.util.TrectextCorpusReader;
 import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.document.StringField;
-import org.apache.lucene.document.TextField;
-import org.apache.lucene.document.FieldType;
-import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.CodecReader;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.misc.index.BPIndexReorderer;
 import org.apache.lucene.store.FSDirectory;
 
 import java.io.File;
@@ -19,75 +23,187 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 //Builds Lucene index from TRECTEXT dataset
 public class IndexBuilderMain {
     public static void main(String[] args) {
+        //--positions stores term positions in CONTENT for phrase and proximity scoring
+        boolean withPositions = Arrays.asList(args).contains("--positions");
+        //--skip-duplicates leaves near-duplicates out of the index instead of only tagging their DUP_GROUP
+        boolean skipDuplicates = Arrays.asList(args).contains("--skip-duplicates");
+        //--reorder renumbers documents with recursive graph bisection (BP) so documents sharing terms get
+        //nearby ids: smaller postings deltas and better locality for the scorer's traversal
+        boolean reorder = Arrays.asList(args).contains("--reorder");
+        //--input=<file> indexes another TRECTEXT file, e.g. one from SyntheticCorpusMain, or a binary corpus
+        //from BinaryCorpusMain (recognized by its header)
+        String input = Arrays.stream(args).filter(arg -> arg.startsWith("--input="))
+                .map(arg -> arg.substring("--input=".length())).findFirst().orElse(null);
+        //--shards=<n> partitions the games by DOCNO hash into data/index/shard-0..n-1 (stats likewise),
+        //searched in parallel with global collection statistics
+        int shards = Arrays.stream(args).filter(arg -> arg.startsWith("--shards="))
+                .map(arg -> Integer.parseInt(arg.substring("--shards=".length()))).findFirst().orElse(1);
+        if (shards < 1) {
+            System.err.println("--shards must be at least 1");
+            return;
+        }
+        //--vectors[=<dims>] adds a random-indexing vector per game (KnnFloatVectorField, HNSW) for /api/similar
+        int vectorDimensions = Arrays.stream(args)
+                .filter(arg -> arg.equals("--vectors") || arg.startsWith("--vectors="))
+                .map(arg -> arg.equals("--vectors") ? RandomIndexVectorizer.DEFAULT_DIMENSIONS
+                        : Integer.parseInt(arg.substring("--vectors=".length())))
+                .findFirst().orElse(0);
+        if (vectorDimensions < 0 || vectorDimensions > 1024) {
+            System.err.println("--vectors takes 1 to 1024 dimensions");
+            return;
+        }
+
         try {
             //Set paths for input file and index directory
             Path basePath = Paths.get(System.getProperty("user.dir"));
-            Path inputPath = basePath.resolve("src/main/resources/data/merged_itchio_dataset.trectext");
+            Path inputPath = input != null ? Paths.get(input)
+                    : basePath.resolve("src/main/resources/data/merged_itchio_dataset.trectext");
             Path indexPath = basePath.resolve("data/index");
+            //With --reorder the index is built here first, then rewritten in BP order into data/index
+            Path buildPath = reorder ? basePath.resolve("data/index-unordered") : indexPath;
+            Path suggestPath = basePath.resolve("data/suggest");
+            Path statsPath = basePath.resolve("data/stats");
 
             System.out.println("Input file:  " + inputPath);
             System.out.println("Index dir:   " + indexPath);
+            System.out.println("Suggest dir: " + suggestPath);
+            System.out.println("Stats dir:   " + statsPath);
+            System.out.println("Positions:   " + (withPositions ? "yes" : "no"));
+            System.out.println("Duplicates:  " + (skipDuplicates ? "skipped" : "grouped"));
+            System.out.println("Reorder:     " + (reorder ? "BP (recursive graph bisection)" : "no"));
+            System.out.println("Shards:      " + shards);
+            System.out.println("Vectors:     " + (vectorDimensions > 0 ? vectorDimensions + " dimensions" : "no"));
 
-            //Delete old index folder if exists
-            File indexDir = indexPath.toFile();
-            if (indexDir.exists()) {
-                deleteDirectory(indexDir);
+            //Per shard: where it is built, where it ends up and its stats sidecars. One shard is data/index itself
+            Path[] buildPaths = new Path[shards];
+            Path[] indexPaths = new Path[shards];
+            Path[] statsPaths = new Path[shards];
+            for (int shard = 0; shard < shards; shard++) {
+                String name = shards == 1 ? "" : ShardRouter.shardName(shard);
+                buildPaths[shard] = buildPath.resolve(name);
+                indexPaths[shard] = indexPath.resolve(name);
+                statsPaths[shard] = statsPath.resolve(name);
+            }
+
+            //Delete old index and suggest folders if exist
+            deleteDirectory(indexPath.toFile());
+            deleteDirectory(buildPath.toFile());
+            deleteDirectory(suggestPath.toFile());
+            deleteDirectory(statsPath.toFile());
+            for (Path path : buildPaths) {
+                Files.createDirectories(path);
             }
-            Files.createDirectories(indexPath);
 
             //Initialize text preprocessor with Porter Stemmer
             TextPreprocessor preprocessor = new TextPreprocessor();
 
+            //Collect titles and vocabulary for /api/suggest while indexing
+            SuggestDictionaryBuilder suggestBuilder = new SuggestDictionaryBuilder(preprocessor);
+
+            //MinHash/LSH grouping of near-duplicate games from the overlapping crawls
+            NearDuplicateDetector duplicateDetector = new NearDuplicateDetector();
+
             //Initialize Lucene index writer with WhitespaceAnalyzer
             IndexWriterConfig config = new IndexWriterConfig(new WhitespaceAnalyzer());
             config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+            //Separate files per format (no .cfs) so the search service can preload postings and doc values by extension
+            config.setUseCompoundFile(false);
 
-            // ========== Indexing Documents ========== //
+            //Document frequencies for the vectors' idf weights need a pass over the whole corpus first
+            RandomIndexVectorizer vectorizer = null;
+            if (vectorDimensions > 0) {
+                vectorizer = vectorizer(inputPath, preprocessor, vectorDimensions);
+            }
 
-            try (FSDirectory dir = FSDirectory.open(indexPath);
-                 IndexWriter writer = new IndexWriter(dir, config);
-                 TrectextCorpusReader reader = new TrectextCorpusReader(inputPath.toString())) {
+            // ========== Indexing Documents ========== //
 
-                //Create custom FieldType for CONTENT field with term vectors
-                FieldType contentType = new FieldType();
-                contentType.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
-                contentType.setStored(true);
-                contentType.setStoreTermVectors(true);
-                contentType.setTokenized(true);
+            FSDirectory[] dirs = new FSDirectory[shards];
+            IndexWriter[] writers = new IndexWriter[shards];
+            long start = System.nanoTime();
+            try (CorpusReader reader = CorpusReader.open(inputPath, preprocessor)) {
+                for (int shard = 0; shard < shards; shard++) {
+                    dirs[shard] = FSDirectory.open(buildPaths[shard]);
+                    //A config can only be used by one writer
+                    writers[shard] = new IndexWriter(dirs[shard], shard == 0 ? config
+                            : new IndexWriterConfig(new WhitespaceAnalyzer())
+                                    .setOpenMode(IndexWriterConfig.OpenMode.CREATE)
+                                    .setUseCompoundFile(false));
+                }
 
-                //Create custom FieldType for CONTENT_ORIGINAL with no length limit
-                FieldType originalContentType = new FieldType();
-                originalContentType.setStored(true);
-                originalContentType.setTokenized(false);
-                originalContentType.setIndexOptions(IndexOptions.NONE);
+                //Same fields and analysis as documents added through the ingest API
+                LuceneDocumentBuilder documentBuilder = new LuceneDocumentBuilder(preprocessor, withPositions);
 
                 int count = 0;
+                int[] shardCounts = new int[shards];
                 GameDocument doc;
 
                 while ((doc = reader.nextDocument()) != null) {
-                    Document luceneDoc = new Document();
-                    luceneDoc.add(new StringField("DOCNO", doc.getDocno(), Field.Store.YES));
-                    luceneDoc.add(new TextField("TITLE", doc.getTitle(), Field.Store.YES));
-                    luceneDoc.add(new StringField("AUTHOR", doc.getAuthor(), Field.Store.YES));
-                    luceneDoc.add(new StringField("PRICE", doc.getPrice(), Field.Store.YES));
-                    luceneDoc.add(new StringField("URL", doc.getUrl(), Field.Store.YES));
+                    //Groups are assigned over the whole corpus, so near-duplicates collapse across shards
+                    int group = duplicateDetector.assign(doc.getUrl(), doc.getText());
+                    if (skipDuplicates && duplicateDetector.isDuplicate(group)) continue;
 
-                    //Store original content for display purposes without length limit
-                    luceneDoc.add(new Field("CONTENT_ORIGINAL", doc.getText(), originalContentType));
+                    //Near-duplicate group, search keeps only the best hit per group
+                    Document luceneDoc = documentBuilder.build(doc, group, vectorizer, reader.stemmedTitle(),
+                            reader.stemmedText());
+                    int shard = ShardRouter.shardOf(doc.getDocno(), shards);
+                    writers[shard].addDocument(luceneDoc);
+                    shardCounts[shard]++;
+                    suggestBuilder.addDocument(doc.getTitle(), doc.getText());
+                    count++;
+                }
 
-                    //Preprocess content with Porter Stemmer for searching
-                    String preprocessedContent = preprocessor.preprocess(doc.getText());
-                    luceneDoc.add(new Field("CONTENT", preprocessedContent, contentType));
+                //BP reorders one segment, and the unordered size is only comparable at one segment too.
+                //Each segment has its own HNSW graph and /api/similar searches them one after another,
+                //one graph is a single walk
+                if (reorder || vectorizer != null) {
+                    for (IndexWriter writer : writers) {
+                        writer.forceMerge(1);
+                    }
+                }
 
-                    writer.addDocument(luceneDoc);
-                    count++;
+                System.out.println("Indexed " + count + " documents successfully to: " + buildPath
+                        + (shards > 1 ? " " + Arrays.toString(shardCounts) + " per shard" : "")
+                        + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+                System.out.println("Near-duplicates: " + duplicateDetector.getDuplicateCount() + " found, "
+                        + duplicateDetector.getGroupCount() + " distinct games");
+            } finally {
+                for (int shard = 0; shard < shards; shard++) {
+                    if (writers[shard] != null) writers[shard].close();
+                    if (dirs[shard] != null) dirs[shard].close();
                 }
+            }
 
-                System.out.println("Indexed " + count + " documents successfully to: " + indexPath);
+            if (reorder) {
+                for (int shard = 0; shard < shards; shard++) {
+                    reorderIndex(buildPaths[shard], indexPaths[shard]);
+                    printIndexSizes(buildPaths[shard], indexPaths[shard]);
+                }
+                deleteDirectory(buildPath.toFile());
+            }
+
+            suggestBuilder.write(suggestPath);
+
+            //Binary stats sidecars tied to the commit generation, mapped by the search service at startup
+            for (int shard = 0; shard < shards; shard++) {
+                try (FSDirectory dir = FSDirectory.open(indexPaths[shard]);
+                     DirectoryReader indexReader = DirectoryReader.open(dir)) {
+                    for (String field : new String[]{"CONTENT", "TITLE_STEMMED"}) {
+                        CollectionStats.write(CollectionStats.sidecarFile(statsPaths[shard], field), indexReader,
+                                field);
+                    }
+                    System.out.println("Stats sidecars written to: " + statsPaths[shard]
+                            + " (commit generation " + indexReader.getIndexCommit().getGeneration() + ")");
+                }
             }
             // ====================================== //
 
@@ -98,6 +214,100 @@ public class IndexBuilderMain {
         }
     }
 
+    //Vectorizer with the document frequencies of every CONTENT stem of the corpus
+    private static RandomIndexVectorizer vectorizer(Path inputPath, TextPreprocessor preprocessor, int dimensions)
+            throws IOException {
+        long start = System.nanoTime();
+        Map<String, Integer> docFreqs = new HashMap<>();
+        int docCount = 0;
+        try (CorpusReader reader = CorpusReader.open(inputPath, preprocessor)) {
+            GameDocument doc;
+            while ((doc = reader.nextDocument()) != null) {
+                String stems = reader.stemmedText() != null ? reader.stemmedText()
+                        : preprocessor.preprocess(doc.getText());
+                for (String term : new HashSet<>(Arrays.asList(stems.split(" ")))) {
+                    if (!term.isEmpty()) docFreqs.merge(term, 1, Integer::sum);
+                }
+                docCount++;
+            }
+        }
+        System.out.println("Document frequencies of " + docFreqs.size() + " stems for the vectors in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return new RandomIndexVectorizer(dimensions, term -> docFreqs.getOrDefault(term, 0), docCount);
+    }
+
+    //Rewrite the single-segment index at source into target in BP order, computed over CONTENT postings.
+    //Every field (stored, term vectors, doc values, points) is carried over by SortingCodecReader
+    private static void reorderIndex(Path source, Path target) throws IOException {
+        long start = System.nanoTime();
+        IndexWriterConfig config = new IndexWriterConfig(new WhitespaceAnalyzer());
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        config.setUseCompoundFile(false);
+
+        try (FSDirectory sourceDir = FSDirectory.open(source);
+             DirectoryReader reader = DirectoryReader.open(sourceDir);
+             FSDirectory targetDir = FSDirectory.open(target);
+             IndexWriter writer = new IndexWriter(targetDir, config)) {
+            //An empty corpus (or shard) has no segment to reorder, the target is committed empty
+            if (reader.maxDoc() == 0) {
+                writer.commit();
+                System.out.println("Nothing to reorder, empty index written to: " + target);
+                return;
+            }
+
+            BPIndexReorderer reorderer = new BPIndexReorderer();
+            reorderer.setFields(Set.of("CONTENT"));
+            //Lucene's default only considers terms in 4096+ documents (tuned for huge indexes), which would
+            //leave a small index as is. Scale it down, rare terms say little about clustering anyway
+            reorderer.setMinDocFreq(Math.max(2, Math.min(BPIndexReorderer.DEFAULT_MIN_DOC_FREQ, reader.maxDoc() / 1000)));
+
+            //Forward index temp files go next to the target index
+            CodecReader segment = (CodecReader) reader.leaves().get(0).reader();
+            writer.addIndexes(reorderer.reorder(segment, targetDir));
+            writer.commit();
+            System.out.println("Reordered " + reader.maxDoc() + " documents in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms to: " + target);
+        }
+    }
+
+    //Bytes per file extension of the index before and after reordering
+    private static void printIndexSizes(Path before, Path after) throws IOException {
+        Map<String, Long> sizesBefore = sizesByExtension(before);
+        Map<String, Long> sizesAfter = sizesByExtension(after);
+
+        System.out.println(String.format("%-6s %14s %14s %8s", "file", "unordered", "reordered", "change"));
+        long totalBefore = 0;
+        long totalAfter = 0;
+        for (String extension : sizesBefore.keySet()) {
+            long a = sizesBefore.get(extension);
+            long b = sizesAfter.getOrDefault(extension, 0L);
+            printSizeRow(extension, a, b);
+            totalBefore += a;
+            totalAfter += b;
+        }
+        printSizeRow("total", totalBefore, totalAfter);
+    }
+
+    private static void printSizeRow(String label, long before, long after) {
+        System.out.println(String.format("%-6s %14d %14d %7.1f%%", label, before, after,
+                before == 0 ? 0.0 : 100.0 * (after - before) / before));
+    }
+
+    //Index files grouped by extension ("doc" postings, "pos" positions, "tim" terms, ...)
+    private static Map<String, Long> sizesByExtension(Path indexDir) {
+        Map<String, Long> sizes = new TreeMap<>();
+        File[] files = indexDir.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!file.isFile() || name.startsWith("segments") || name.equals("write.lock")) continue;
+                String extension = name.substring(name.lastIndexOf('.') + 1);
+                sizes.merge(extension, file.length(), Long::sum);
+            }
+        }
+        return sizes;
+    }
+
     //Recursively delete directory and all contents
     private static void deleteDirectory(File directory) throws IOException {
         if (!directory.exists()) return;
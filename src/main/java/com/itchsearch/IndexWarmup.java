@@ -0,0 +1,57 @@
+package com.itchsearch;
+
+import com.itchsearch.model.SearchOptions;
+import com.itchsearch.model.SortOrder;
+import com.itchsearch.service.GameSearchService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+//Runs a set of queries at startup so postings, doc values, stats and JIT are warm before the first user query.
+//Runners finish before Spring Boot publishes ReadinessState.ACCEPTING_TRAFFIC, so /actuator/health/readiness
+//stays OUT_OF_SERVICE until warm-up is done.
+@Component
+@Order(0) // Before SearchEvaluationTest
+public class IndexWarmup implements CommandLineRunner {
+
+    @Autowired
+    private GameSearchService searchService;
+
+    @Value("${itchsearch.warmup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${itchsearch.warmup.rounds:3}")
+    private int rounds;
+
+    @Value("${itchsearch.warmup.queries:}")
+    private String[] queries;
+
+    @Override
+    public void run(String... args) {
+        if (!enabled || queries.length == 0) {
+            return;
+        }
+
+        //Touch every code path a real request can hit: facets, near-duplicate collapse and price sort
+        SearchOptions relevance = new SearchOptions();
+        relevance.setFacets(true);
+        relevance.setCollapse(true);
+        SearchOptions byPrice = new SearchOptions();
+        byPrice.setSort(SortOrder.PRICE_ASC);
+
+        long start = System.nanoTime();
+        for (int round = 1; round <= rounds; round++) {
+            long roundStart = System.nanoTime();
+            for (String query : queries) {
+                searchService.search(query, 50, relevance);
+                searchService.search(query, 50, byPrice);
+            }
+            System.out.println("Warm-up round " + round + ": " + queries.length + " queries in "
+                    + (System.nanoTime() - roundStart) / 1_000_000 + " ms");
+        }
+        System.out.println("Warm-up done in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        System.out.flush();
+    }
+}
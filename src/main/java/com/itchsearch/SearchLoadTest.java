@@ -0,0 +1,260 @@
+package com.itchsearch;
+
+import com.itchsearch.model.SearchOptions;
+import com.itchsearch.service.GameSearchService;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Load generator, run with --loadtest (like --evaluation). Replays a query log (one query per line)
+//or the built-in test queries, picked with a Zipf distribution over their order, from N closed-loop
+//workers either straight against GameSearchService or over HTTP against this instance's /api/search.
+//Reports throughput, HdrHistogram latency percentiles of successful searches and JVM allocation rate, then exits.
+//Over HTTP, searches shed by the concurrency limiter (429/503) are counted apart from errors, so a run with
+//more workers than the server can take is an overload test: goodput and latency should hold while the
+//excess is rejected. Workers wait out Retry-After after a rejection, like a well-behaved client.
+@Component
+@Order(2) // After warm-up and SearchEvaluationTest
+public class SearchLoadTest implements CommandLineRunner {
+
+    //Latencies above this are clamped, in microseconds
+    private static final long MAX_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    @Autowired
+    private GameSearchService searchService;
+
+    @Autowired
+    private ApplicationContext context;
+
+    //service (in-process) or http
+    @Value("${itchsearch.loadtest.target:service}")
+    private String target;
+
+    @Value("${itchsearch.loadtest.url:http://localhost:${server.port:8080}/api/search}")
+    private String url;
+
+    @Value("${itchsearch.loadtest.concurrency:8}")
+    private int concurrency;
+
+    @Value("${itchsearch.loadtest.warmup-seconds:5}")
+    private int warmupSeconds;
+
+    @Value("${itchsearch.loadtest.duration-seconds:30}")
+    private int durationSeconds;
+
+    //Query log file, empty uses the built-in test queries
+    @Value("${itchsearch.loadtest.queries-file:}")
+    private String queriesFile;
+
+    @Value("${itchsearch.warmup.queries:}")
+    private String[] builtInQueries;
+
+    //Zipf exponent over query order (first line most frequent), 0 is uniform
+    @Value("${itchsearch.loadtest.zipf-exponent:1.0}")
+    private double zipfExponent;
+
+    @Value("${itchsearch.loadtest.max-results:50}")
+    private int maxResults;
+
+    //Sleep for Retry-After when a search is shed, false retries at once
+    @Value("${itchsearch.loadtest.honor-retry-after:true}")
+    private boolean honorRetryAfter;
+
+    //Status of one search and how long the server asked to wait before the next, in milliseconds
+    private record Outcome(int status, long retryAfterMillis) {
+    }
+
+    @Override
+    public void run(String... args) throws Exception {
+        if (!Arrays.asList(args).contains("--loadtest")) {
+            return;
+        }
+
+        List<String> queries = loadQueries();
+        if (queries.isEmpty()) {
+            System.err.println("No queries to replay, set itchsearch.loadtest.queries-file");
+            System.exit(SpringApplication.exit(context, () -> 1));
+        }
+        boolean overHttp = target.equalsIgnoreCase("http");
+        double[] cumulative = zipfCumulative(queries.size(), zipfExponent);
+        HttpClient client = overHttp ? HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build() : null;
+
+        System.out.println("\n=== SEARCH LOAD TEST ===\n");
+        System.out.println("Target:      " + (overHttp ? url : "GameSearchService (in-process)"));
+        System.out.println("Queries:     " + queries.size() + (queriesFile.isBlank() ? " built-in" : " from " + queriesFile)
+                + ", Zipf s=" + zipfExponent);
+        System.out.println("Concurrency: " + concurrency + ", warm-up " + warmupSeconds + "s, measured "
+                + durationSeconds + "s");
+        System.out.flush();
+
+        //Same worker threads for both phases and alive while allocation is read, so their bytes are counted
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+
+        //Warm-up phase is run the same way but not recorded
+        runPhase(workers, queries, cumulative, client, warmupSeconds, null, null, null);
+
+        Histogram latencies = new ConcurrentHistogram(MAX_LATENCY_MICROS, 3);
+        AtomicLong errors = new AtomicLong();
+        AtomicLong shed = new AtomicLong();
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        runPhase(workers, queries, cumulative, client, durationSeconds, latencies, errors, shed);
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        long allocated = allocatedBefore < 0 ? -1 : allocatedBytes() - allocatedBefore;
+        workers.shutdown();
+
+        long succeeded = latencies.getTotalCount();
+        long count = succeeded + errors.get() + shed.get();
+        System.out.println("\n=== RESULTS ===");
+        System.out.println("Requests:    " + count + " (" + errors.get() + " errors, " + shed.get() + " shed)");
+        System.out.println("Throughput:  " + String.format("%.1f", count / elapsedSeconds) + " queries/s, goodput "
+                + String.format("%.1f", succeeded / elapsedSeconds) + " queries/s");
+        System.out.println("Latency ms:  p50 " + millis(latencies, 50) + "  p95 " + millis(latencies, 95)
+                + "  p99 " + millis(latencies, 99) + "  p99.9 " + millis(latencies, 99.9)
+                + "  max " + String.format("%.2f", latencies.getMaxValue() / 1000.0));
+        if (allocated >= 0) {
+            System.out.println("Allocation:  " + String.format("%.1f", allocated / elapsedSeconds / (1 << 20))
+                    + " MB/s, " + String.format("%.1f", count == 0 ? 0.0 : allocated / (double) count / 1024)
+                    + " KB/query (all JVM threads)");
+        }
+        System.out.println("\n=== Load Test Complete ===");
+        System.out.flush();
+
+        System.exit(SpringApplication.exit(context, () -> 0));
+    }
+
+    //Closed loop: each worker sends its next query as soon as the previous one returns
+    private void runPhase(ExecutorService workers, List<String> queries, double[] cumulative, HttpClient client,
+                          int seconds, Histogram latencies, AtomicLong errors, AtomicLong shed) throws Exception {
+        if (seconds <= 0) return;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+        List<Future<?>> running = new ArrayList<>();
+        for (int w = 0; w < concurrency; w++) {
+            running.add(workers.submit(() -> {
+                while (System.nanoTime() < deadline) {
+                    String query = queries.get(sample(cumulative));
+                    long begin = System.nanoTime();
+                    Outcome outcome = execute(client, query);
+                    long micros = (System.nanoTime() - begin) / 1000;
+                    if (latencies != null) {
+                        if (outcome.status() == 200) {
+                            latencies.recordValue(Math.min(micros, MAX_LATENCY_MICROS));
+                        } else if (outcome.status() == 429 || outcome.status() == 503) {
+                            shed.incrementAndGet();
+                        } else {
+                            errors.incrementAndGet();
+                        }
+                    }
+                    if (honorRetryAfter && outcome.retryAfterMillis() > 0) {
+                        try {
+                            Thread.sleep(Math.min(outcome.retryAfterMillis(),
+                                    TimeUnit.NANOSECONDS.toMillis(Math.max(0, deadline - System.nanoTime()))));
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            }));
+        }
+        for (Future<?> worker : running) {
+            worker.get();
+        }
+    }
+
+    //HTTP status of the search (200 in-process, 0 when the request failed) and its Retry-After
+    private Outcome execute(HttpClient client, String query) {
+        try {
+            if (client == null) {
+                searchService.searchGames(query, maxResults, new SearchOptions());
+                return new Outcome(200, 0);
+            }
+            HttpRequest request = HttpRequest.newBuilder(
+                    URI.create(url + "?query=" + URLEncoder.encode(query, StandardCharsets.UTF_8))).GET().build();
+            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            long retryAfter = response.headers().firstValueAsLong("Retry-After").orElse(0);
+            return new Outcome(response.statusCode(), TimeUnit.SECONDS.toMillis(retryAfter));
+        } catch (Exception e) {
+            return new Outcome(0, 0);
+        }
+    }
+
+    private List<String> loadQueries() throws Exception {
+        List<String> queries = new ArrayList<>();
+        if (queriesFile.isBlank()) {
+            for (String query : builtInQueries) {
+                if (!query.isBlank()) queries.add(query.trim());
+            }
+            return queries;
+        }
+        Path path = Paths.get(queriesFile);
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            //Query logs may carry a count or id before a tab, keep the last column
+            String query = line.contains("\t") ? line.substring(line.lastIndexOf('\t') + 1) : line;
+            if (!query.isBlank()) queries.add(query.trim());
+        }
+        return queries;
+    }
+
+    //Cumulative Zipf probabilities for ranks 1..n
+    private static double[] zipfCumulative(int n, double exponent) {
+        double[] cumulative = new double[n];
+        double total = 0;
+        for (int rank = 1; rank <= n; rank++) {
+            total += 1.0 / Math.pow(rank, exponent);
+            cumulative[rank - 1] = total;
+        }
+        for (int i = 0; i < n; i++) {
+            cumulative[i] /= total;
+        }
+        return cumulative;
+    }
+
+    private static int sample(double[] cumulative) {
+        int index = Arrays.binarySearch(cumulative, ThreadLocalRandom.current().nextDouble());
+        return Math.min(index >= 0 ? index : -index - 1, cumulative.length - 1);
+    }
+
+    private static String millis(Histogram histogram, double percentile) {
+        return String.format("%.2f", histogram.getValueAtPercentile(percentile) / 1000.0);
+    }
+
+    //Bytes allocated so far by all live threads (HotSpot), -1 when unsupported.
+    //Includes server threads in http mode, threads that exit during the run are not counted
+    private static long allocatedBytes() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads)
+                || !threads.isThreadAllocatedMemorySupported()) {
+            return -1;
+        }
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) total += bytes;
+        }
+        return total;
+    }
+}
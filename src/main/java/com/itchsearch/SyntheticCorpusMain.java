@@ -0,0 +1,137 @@
+package com.itchsearch;
+
+import com.itchsearch.model.GameDocument;
+import com.itchsearch.util.TrectextCorpusReader;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+//Writes a synthetic TRECTEXT corpus of any size for index and scoring benchmarks (IndexBuilderMain --input=).
+//Vocabulary and word frequencies come from the bundled crawl. Every document belongs to one of a few hundred
+//topics and mixes that topic's words with general words, and documents are written in random topic order,
+//like a crawl that is not grouped by keyword.
+//Usage: SyntheticCorpusMain [--docs=1000000] [--topics=500] [--output=data/synthetic.trectext] [--seed=42]
+public class SyntheticCorpusMain {
+
+    private static final int WORDS_PER_TOPIC = 200;
+    private static final int MIN_LENGTH = 30;
+    private static final int MAX_LENGTH = 250;
+    //Share of a document's words drawn from its topic
+    private static final double TOPIC_SHARE = 0.5;
+
+    public static void main(String[] args) {
+        int docs = Integer.parseInt(option(args, "--docs=", "1000000"));
+        int topics = Integer.parseInt(option(args, "--topics=", "500"));
+        long seed = Long.parseLong(option(args, "--seed=", "42"));
+
+        try {
+            Path basePath = Paths.get(System.getProperty("user.dir"));
+            Path inputPath = basePath.resolve("src/main/resources/data/merged_itchio_dataset.trectext");
+            Path outputPath = basePath.resolve(option(args, "--output=", "data/synthetic.trectext"));
+
+            System.out.println("Vocabulary from: " + inputPath);
+            System.out.println("Output file:     " + outputPath);
+            System.out.println("Documents:       " + docs + " over " + topics + " topics");
+
+            //Words of the bundled crawl by descending frequency, drawn with a Zipf distribution over that rank
+            List<String> vocabulary = vocabulary(inputPath);
+            double[] wordCumulative = zipfCumulative(vocabulary.size());
+            double[] topicWordCumulative = zipfCumulative(WORDS_PER_TOPIC);
+            double[] topicCumulative = zipfCumulative(topics);
+            Random random = new Random(seed);
+
+            //Each topic picks its words from outside the most common ones, so topics are distinguishable
+            int commonWords = Math.min(200, vocabulary.size() / 10);
+            String[][] topicWords = new String[topics][WORDS_PER_TOPIC];
+            for (String[] words : topicWords) {
+                for (int w = 0; w < WORDS_PER_TOPIC; w++) {
+                    words[w] = vocabulary.get(commonWords + random.nextInt(vocabulary.size() - commonWords));
+                }
+            }
+
+            long start = System.nanoTime();
+            Files.createDirectories(outputPath.getParent());
+            try (BufferedWriter fileOut = Files.newBufferedWriter(outputPath, StandardCharsets.UTF_8);
+                 PrintWriter out = new PrintWriter(fileOut)) {
+                StringBuilder text = new StringBuilder();
+                for (int d = 0; d < docs; d++) {
+                    int topic = sample(topicCumulative, random);
+                    String[] words = topicWords[topic];
+
+                    text.setLength(0);
+                    int length = MIN_LENGTH + random.nextInt(MAX_LENGTH - MIN_LENGTH);
+                    for (int w = 0; w < length; w++) {
+                        if (w > 0) text.append(' ');
+                        text.append(random.nextDouble() < TOPIC_SHARE
+                                ? words[sample(topicWordCumulative, random)]
+                                : vocabulary.get(sample(wordCumulative, random)));
+                    }
+                    String title = words[sample(topicWordCumulative, random)] + " "
+                            + words[sample(topicWordCumulative, random)];
+
+                    out.println("<DOC>");
+                    out.println("<DOCNO>synthetic_" + d + "</DOCNO>");
+                    out.println("<TITLE>" + title + (random.nextInt(3) == 0 ? " $" + random.nextInt(20) + ".99" : "")
+                            + "</TITLE>");
+                    out.println("<AUTHOR>studio" + topic + "_" + random.nextInt(20) + "</AUTHOR>");
+                    out.println("<URL>https://studio" + topic + ".itch.io/synthetic-" + d + "</URL>");
+                    out.println("<TEXT>" + text + "</TEXT>");
+                    out.println("</DOC>");
+                }
+            }
+
+            System.out.println("Wrote " + docs + " documents (" + Files.size(outputPath) / (1 << 20) + " MB) in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } catch (IOException e) {
+            System.err.println("I/O error: " + e.getMessage());
+        }
+    }
+
+    //Lowercase words of the bundled corpus, most frequent first
+    private static List<String> vocabulary(Path corpus) throws IOException {
+        Map<String, Integer> counts = new HashMap<>();
+        try (TrectextCorpusReader reader = new TrectextCorpusReader(corpus.toString())) {
+            GameDocument doc;
+            while ((doc = reader.nextDocument()) != null) {
+                for (String word : doc.getText().toLowerCase(Locale.ROOT).split("[^a-z]+")) {
+                    if (word.length() > 2) counts.merge(word, 1, Integer::sum);
+                }
+            }
+        }
+
+        List<String> vocabulary = new ArrayList<>(counts.keySet());
+        vocabulary.sort(Comparator.comparing((String word) -> counts.get(word)).reversed()
+                .thenComparing(Comparator.naturalOrder()));
+        return vocabulary;
+    }
+
+    //Cumulative Zipf (s = 1) probabilities for ranks 1..n
+    private static double[] zipfCumulative(int n) {
+        double[] cumulative = new double[n];
+        double total = 0;
+        for (int rank = 1; rank <= n; rank++) {
+            total += 1.0 / rank;
+            cumulative[rank - 1] = total;
+        }
+        for (int i = 0; i < n; i++) {
+            cumulative[i] /= total;
+        }
+        return cumulative;
+    }
+
+    private static int sample(double[] cumulative, Random random) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(index >= 0 ? index : -index - 1, cumulative.length - 1);
+    }
+
+    private static String option(String[] args, String prefix, String defaultValue) {
+        return Arrays.stream(args).filter(arg -> arg.startsWith(prefix))
+                .map(arg -> arg.substring(prefix.length())).findFirst().orElse(defaultValue);
+    }
+}
@@ -0,0 +1,235 @@
+package com.itchsearch;
+
+import com.itchsearch.model.Game;
+import com.itchsearch.model.SearchOptions;
+import com.itchsearch.service.GameSearchService;
+import com.itchsearch.util.RankingMetrics;
+import com.itchsearch.util.TrecEvalFiles;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+//Offline retrieval evaluation, run with --trec-eval. Runs TREC topics through GameSearchService in parallel,
+//scores them against qrels (MAP, nDCG@k, MRR, P@10, recall) and optionally writes a TREC run file and
+//diffs the ranking against an earlier run file, so a scorer change can be checked for equivalence
+@Component
+@Order(3) // After warm-up
+public class TrecEvaluation implements CommandLineRunner {
+
+    @Autowired
+    private GameSearchService searchService;
+
+    @Autowired
+    private ApplicationContext context;
+
+    @Value("${itchsearch.eval.topics:classpath:eval/topics.txt}")
+    private Resource topicsFile;
+
+    @Value("${itchsearch.eval.qrels:classpath:eval/qrels.txt}")
+    private Resource qrelsFile;
+
+    //Documents retrieved per topic
+    @Value("${itchsearch.eval.depth:100}")
+    private int depth;
+
+    @Value("${itchsearch.eval.ndcg-k:10}")
+    private int ndcgK;
+
+    @Value("${itchsearch.eval.threads:4}")
+    private int threads;
+
+    //Judgments are per DOCNO, so near-duplicates are not collapsed unless asked
+    @Value("${itchsearch.eval.collapse:false}")
+    private boolean collapse;
+
+    //Expand every topic by pseudo-relevance feedback (RM3)
+    @Value("${itchsearch.eval.feedback:false}")
+    private boolean feedback;
+
+    //Write this run as a TREC run file
+    @Value("${itchsearch.eval.run-file:}")
+    private String runFile;
+
+    @Value("${itchsearch.eval.run-tag:itchsearch}")
+    private String runTag;
+
+    //Earlier TREC run file to diff rankings against
+    @Value("${itchsearch.eval.compare-run:}")
+    private String compareRun;
+
+    //Exit with status 1 when any topic ranks differently from compare-run
+    @Value("${itchsearch.eval.fail-on-diff:false}")
+    private boolean failOnDiff;
+
+    @Override
+    public void run(String... args) throws Exception {
+        if (!Arrays.asList(args).contains("--trec-eval")) {
+            return;
+        }
+
+        Map<String, String> topics;
+        try (InputStreamReader in = new InputStreamReader(topicsFile.getInputStream(), StandardCharsets.UTF_8)) {
+            topics = TrecEvalFiles.readTopics(in);
+        }
+        Map<String, Map<String, Integer>> qrels = new HashMap<>();
+        if (qrelsFile.exists()) {
+            try (InputStreamReader in = new InputStreamReader(qrelsFile.getInputStream(), StandardCharsets.UTF_8)) {
+                qrels = TrecEvalFiles.readQrels(in);
+            }
+        }
+
+        System.out.println("\n=== TREC EVALUATION ===\n");
+        System.out.println("Topics: " + topics.size() + " from " + topicsFile.getDescription());
+        System.out.println("Qrels:  " + qrels.size() + " topics from " + qrelsFile.getDescription());
+        System.out.println("Depth:  " + depth + ", collapse " + collapse + ", feedback " + feedback + ", "
+                + threads + " threads\n");
+        System.out.flush();
+
+        //Run every topic in parallel, keep topic order for the report
+        SearchOptions options = new SearchOptions();
+        options.setFields(Set.of(Game.DOCNO, Game.SCORE));
+        options.setCollapse(collapse);
+        options.setFeedback(feedback);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Map<String, Future<List<Game>>> pending = new LinkedHashMap<>();
+        long start = System.nanoTime();
+        for (Map.Entry<String, String> topic : topics.entrySet()) {
+            pending.put(topic.getKey(), pool.submit(() -> searchService.searchGames(topic.getValue(), depth, options)));
+        }
+        Map<String, List<Game>> results = new LinkedHashMap<>();
+        for (Map.Entry<String, Future<List<Game>>> entry : pending.entrySet()) {
+            results.put(entry.getKey(), entry.getValue().get());
+        }
+        pool.shutdown();
+        System.out.println("Ran " + topics.size() + " topics in " + (System.nanoTime() - start) / 1_000_000 + " ms\n");
+
+        Map<String, List<String>> rankings = new LinkedHashMap<>();
+        results.forEach((topic, games) -> {
+            List<String> docnos = new ArrayList<>();
+            for (Game game : games) docnos.add(game.getDocno());
+            rankings.put(topic, docnos);
+        });
+
+        if (!qrels.isEmpty()) {
+            printMetrics(topics, rankings, qrels);
+        }
+        if (!runFile.isBlank()) {
+            writeRunFile(results);
+        }
+
+        int exitCode = 0;
+        if (!compareRun.isBlank()) {
+            boolean identical = printDiff(rankings);
+            if (!identical && failOnDiff) exitCode = 1;
+        }
+
+        System.out.println("\n=== Evaluation Complete ===");
+        System.out.flush();
+        int status = exitCode;
+        System.exit(SpringApplication.exit(context, () -> status));
+    }
+
+    private void printMetrics(Map<String, String> topics, Map<String, List<String>> rankings,
+                              Map<String, Map<String, Integer>> qrels) {
+        System.out.println(String.format("%-8s %7s %7s %7s %7s %7s  %s", "topic", "AP", "nDCG@" + ndcgK, "RR",
+                "P@10", "R@" + depth, "query"));
+
+        double map = 0, ndcg = 0, mrr = 0, p10 = 0, recall = 0;
+        int judged = 0;
+        for (Map.Entry<String, List<String>> entry : rankings.entrySet()) {
+            Map<String, Integer> judgments = qrels.get(entry.getKey());
+            if (judgments == null) continue;
+            List<String> ranking = RankingMetrics.distinct(entry.getValue());
+
+            double ap = RankingMetrics.averagePrecision(ranking, judgments);
+            double nd = RankingMetrics.ndcg(ranking, judgments, ndcgK);
+            double rr = RankingMetrics.reciprocalRank(ranking, judgments);
+            double p = RankingMetrics.precision(ranking, judgments, 10);
+            double r = RankingMetrics.recall(ranking, judgments, depth);
+            map += ap;
+            ndcg += nd;
+            mrr += rr;
+            p10 += p;
+            recall += r;
+            judged++;
+
+            System.out.println(String.format("%-8s %7.4f %7.4f %7.4f %7.4f %7.4f  %s",
+                    entry.getKey(), ap, nd, rr, p, r, topics.get(entry.getKey())));
+        }
+
+        if (judged == 0) return;
+        System.out.println("\n=== SUMMARY (" + judged + " judged topics) ===");
+        System.out.println(String.format("MAP:        %.4f", map / judged));
+        System.out.println(String.format("nDCG@%-4d   %.4f", ndcgK, ndcg / judged));
+        System.out.println(String.format("MRR:        %.4f", mrr / judged));
+        System.out.println(String.format("P@10:       %.4f", p10 / judged));
+        System.out.println(String.format("Recall@%-4d %.4f", depth, recall / judged));
+    }
+
+    private void writeRunFile(Map<String, List<Game>> results) throws Exception {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(runFile), StandardCharsets.UTF_8))) {
+            results.forEach((topic, games) -> {
+                List<String> docnos = new ArrayList<>();
+                List<Double> scores = new ArrayList<>();
+                for (Game game : games) {
+                    docnos.add(game.getDocno());
+                    scores.add(game.getScore());
+                }
+                TrecEvalFiles.writeRun(out, topic, docnos, scores, runTag);
+            });
+        }
+        System.out.println("\nRun written to " + runFile);
+    }
+
+    //Per-topic ranking differences against the earlier run, true when every topic is identical
+    private boolean printDiff(Map<String, List<String>> rankings) throws Exception {
+        Map<String, List<String>> baseline;
+        try (InputStreamReader in = new InputStreamReader(Files.newInputStream(Paths.get(compareRun)),
+                StandardCharsets.UTF_8)) {
+            baseline = TrecEvalFiles.readRun(in);
+        }
+
+        System.out.println("\n=== RANKING DIFF vs " + compareRun + " ===");
+        int identical = 0;
+        double overlap = 0, tau = 0;
+        for (Map.Entry<String, List<String>> entry : rankings.entrySet()) {
+            List<String> current = entry.getValue();
+            List<String> before = baseline.getOrDefault(entry.getKey(), Collections.emptyList());
+
+            int firstDiff = RankingMetrics.firstDifference(before, current);
+            double topicOverlap = RankingMetrics.overlap(RankingMetrics.distinct(before),
+                    RankingMetrics.distinct(current), 10);
+            double topicTau = RankingMetrics.kendallTau(RankingMetrics.distinct(before),
+                    RankingMetrics.distinct(current));
+            overlap += topicOverlap;
+            tau += topicTau;
+            if (firstDiff == 0) {
+                identical++;
+            } else {
+                System.out.println(String.format("%-8s first difference at rank %d, overlap@10 %.2f, Kendall tau %.4f",
+                        entry.getKey(), firstDiff, topicOverlap, topicTau));
+            }
+        }
+
+        int n = Math.max(1, rankings.size());
+        System.out.println("Identical rankings: " + identical + "/" + rankings.size()
+                + String.format(", mean overlap@10 %.4f, mean Kendall tau %.4f", overlap / n, tau / n));
+        return identical == rankings.size();
+    }
+}
@@ -0,0 +1,62 @@
+package com.itchsearch.controller;
+
+import com.itchsearch.model.GameDocument;
+import com.itchsearch.service.DocumentIngestService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//REST controller for adding, replacing and deleting games in the live index.
+//No @CrossOrigin: only same-origin pages and non-browser clients may change the index
+@RestController
+@RequestMapping("/api/documents")
+public class DocumentController {
+
+    @Autowired
+    private DocumentIngestService ingestService;
+
+    @Value("${itchsearch.ingest.refresh-interval-ms:1000}")
+    private long refreshIntervalMs;
+
+    //POST request handler indexing a JSON array of games (replacing games with the same docno),
+    //searchable within refreshIntervalMs
+    @PostMapping
+    public Map<String, Object> index(@RequestBody List<GameDocument> documents) {
+        try {
+            int indexed = ingestService.index(documents);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("indexed", indexed);
+            response.put("refreshIntervalMs", refreshIntervalMs);
+            return response;
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
+        }
+    }
+
+    //DELETE request handler removing games by docno (?docno=a&docno=b)
+    @DeleteMapping
+    public Map<String, Object> delete(@RequestParam List<String> docno) {
+        try {
+            int deleted = ingestService.delete(docno);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("deleted", deleted);
+            response.put("refreshIntervalMs", refreshIntervalMs);
+            return response;
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
+        }
+    }
+}
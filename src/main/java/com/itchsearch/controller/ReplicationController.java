@@ -0,0 +1,174 @@
+package com.itchsearch.controller;
+
+import com.itchsearch.model.CommitPoint;
+import com.itchsearch.service.IndexManager;
+import com.itchsearch.service.IndexShard;
+import com.itchsearch.service.ReplicationService;
+import com.itchsearch.service.SuggestService;
+import org.apache.lucene.store.IndexInput;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+//REST controller publishing this instance's index commits to replicas (itchsearch.replication.primary),
+//and the replication status of a replica. Any instance can be a primary, a replica too
+@RestController
+@RequestMapping("/api/replication")
+public class ReplicationController {
+
+    @Autowired
+    private IndexManager indexManager;
+
+    @Autowired
+    private ReplicationService replicationService;
+
+    @Autowired
+    private SuggestService suggestService;
+
+    //GET request handler listing the published commit of each shard served here, with its files and the
+    //suggest FSTs
+    @GetMapping("/commits")
+    public List<CommitPoint> commits() {
+        try {
+            List<CommitPoint> points = new ArrayList<>();
+            List<CommitPoint.IndexFile> suggestFiles = SuggestService.describe(suggestService.getSuggestPath());
+            for (IndexShard shard : indexManager.getShards()) {
+                CommitPoint point = shard.getCommitPoint(indexManager.getShardCount());
+                point.setSuggestFiles(suggestFiles);
+                points.add(point);
+            }
+            return points;
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
+        }
+    }
+
+    //GET request handler sending one file of a published commit
+    @GetMapping("/file")
+    public ResponseEntity<StreamingResponseBody> file(@RequestParam int shard, @RequestParam String name) {
+        IndexInput input;
+        try {
+            input = openPublishedFile(shard, name);
+        } catch (NoSuchFileException | FileNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
+        }
+
+        StreamingResponseBody body = out -> {
+            try (IndexInput in = input) {
+                byte[] buffer = new byte[64 * 1024];
+                long remaining = in.length();
+                while (remaining > 0) {
+                    int chunk = (int) Math.min(buffer.length, remaining);
+                    in.readBytes(buffer, 0, chunk);
+                    out.write(buffer, 0, chunk);
+                    remaining -= chunk;
+                }
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .contentLength(input.length())
+                .body(body);
+    }
+
+    //GET request handler sending a stats sidecar published with the commit of a shard
+    @GetMapping("/stats")
+    public ResponseEntity<StreamingResponseBody> stats(@RequestParam int shard, @RequestParam String name) {
+        return sendFile(() -> shardOf(shard).publishedStatsFile(name));
+    }
+
+    //GET request handler sending a suggest FST
+    @GetMapping("/suggest")
+    public ResponseEntity<StreamingResponseBody> suggest(@RequestParam String name) {
+        return sendFile(() -> suggestService.publishedFile(name));
+    }
+
+    //GET request handler reporting what a replica copied: bytes, files copied and reused, copy and
+    //switch-over times of the last commit of each shard
+    @GetMapping("/status")
+    public Map<String, Object> status() {
+        return replicationService.getStatus();
+    }
+
+    //Open the file before answering and send what that handle reads: a file rewritten meanwhile is moved over
+    //the path, the open handle keeps reading the old content, and its length matches the Content-Length
+    private ResponseEntity<StreamingResponseBody> sendFile(PublishedFile published) {
+        Path file;
+        FileChannel channel;
+        long length;
+        try {
+            file = published.path();
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+        } catch (NoSuchFileException | FileNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
+        }
+        try {
+            length = channel.size();
+        } catch (IOException e) {
+            closeQuietly(channel);
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
+        }
+
+        StreamingResponseBody body = out -> {
+            try (FileChannel in = channel) {
+                WritableByteChannel target = Channels.newChannel(out);
+                long position = 0;
+                while (position < length) {
+                    long sent = in.transferTo(position, length - position, target);
+                    if (sent <= 0) throw new IOException(file.getFileName() + " was truncated while sending it");
+                    position += sent;
+                }
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .contentLength(length)
+                .body(body);
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            //Nothing was sent from it
+        }
+    }
+
+    private IndexInput openPublishedFile(int shardId, String name) throws IOException {
+        return shardOf(shardId).openPublishedFile(name);
+    }
+
+    private IndexShard shardOf(int shardId) throws IOException {
+        for (IndexShard shard : indexManager.getShards()) {
+            if (shard.getId() == shardId) {
+                return shard;
+            }
+        }
+        throw new NoSuchFileException("Shard " + shardId + " is not served here");
+    }
+
+    //Path of a published file, resolved when the request comes in
+    private interface PublishedFile {
+        Path path() throws IOException;
+    }
+}
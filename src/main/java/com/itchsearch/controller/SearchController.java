@@ -1,33 +1,319 @@
 package com.itchsearch.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.itchsearch.model.Game;
+import com.itchsearch.model.SearchOptions;
+import com.itchsearch.model.SearchResult;
+import com.itchsearch.model.SortOrder;
+import com.itchsearch.service.ConcurrencyLimiter;
 import com.itchsearch.service.GameSearchService;
+import com.itchsearch.service.RankingModel;
+import com.itchsearch.service.SearchResultCache;
+import com.itchsearch.service.SpellingService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
-//REST controller for search endpoint
+//REST controller for search endpoint. Searches not answered from the result cache need a permit from the
+//concurrency limiter, over the limit they fail fast with reject-status and Retry-After
 @RestController
 @RequestMapping("/api")
-@CrossOrigin(origins = "*")
+@CrossOrigin(origins = "*", exposedHeaders = {SearchController.STEMMED_QUERY_HEADER, HttpHeaders.RETRY_AFTER})
 public class SearchController {
 
+    static final String NDJSON = "application/x-ndjson";
+    static final String STEMMED_QUERY_HEADER = "X-Stemmed-Query";
+    private static final String STREAM_PERMIT = SearchController.class.getName() + ".streamPermit";
+
     @Autowired
     private GameSearchService gameSearchService;
 
-    //GET request handler for search with stemmed query returned
+    @Autowired
+    private SpellingService spellingService;
+
+    @Autowired
+    private SearchResultCache resultCache;
+
+    @Autowired
+    private ConcurrencyLimiter limiter;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${itchsearch.search.default-fields:title,author,price,url,snippet}")
+    private String defaultFields;
+
+    @Value("${itchsearch.search.collapse-duplicates:true}")
+    private boolean collapseDuplicates;
+
+    //Expand queries by pseudo-relevance feedback (RM3) unless feedback= says otherwise
+    @Value("${itchsearch.feedback.enabled:false}")
+    private boolean feedbackEnabled;
+
+    //Time budget of one search, timeoutMs= can only lower it, 0 disables it
+    @Value("${itchsearch.search.timeout-ms:200}")
+    private long timeoutMs;
+
+    //Spelling suggestions are looked up when a search returns fewer hits than this
+    @Value("${itchsearch.spelling.low-hits:3}")
+    private int lowHits;
+
+    //With no hits at all, search the suggestion instead and say so in correctedQuery
+    @Value("${itchsearch.spelling.auto-correct:true}")
+    private boolean autoCorrect;
+
+    //Status of searches shed by the concurrency limiter, 503 or 429
+    @Value("${itchsearch.limiter.reject-status:503}")
+    private int rejectStatus;
+
+    //GET request handler for search with stemmed query returned,
+    //facets=true adds author/platform counts over all matching documents,
+    //didYouMean is added when few games match and a spelling correction exists,
+    //partial is set when the time budget ran out and the results are the best found before that,
+    //feedback=true expands the query with stems of its top results and returns them in expansion
     @GetMapping("/search")
-    public Map<String, Object> search(@RequestParam String query) {
-        List<Game> games = gameSearchService.searchGames(query, 50);
+    public Map<String, Object> search(@RequestParam String query,
+                                      @RequestParam(required = false) String fields,
+                                      @RequestParam(required = false) Double minPrice,
+                                      @RequestParam(required = false) Double maxPrice,
+                                      @RequestParam(required = false) String author,
+                                      @RequestParam(required = false) String platform,
+                                      @RequestParam(required = false) String sort,
+                                      @RequestParam(required = false) String model,
+                                      @RequestParam(required = false) Boolean collapse,
+                                      @RequestParam(required = false) Long timeoutMs,
+                                      @RequestParam(required = false) Boolean feedback,
+                                      @RequestParam(defaultValue = "false") boolean facets) {
+        SearchOptions options = parseOptions(fields, minPrice, maxPrice, author, platform, sort, model, collapse,
+                feedback, timeoutMs);
+        options.setFacets(facets);
+        SearchResult result = cachedSearch(query, options);
         String stemmedQuery = gameSearchService.getStemmedQuery(query);
 
         Map<String, Object> response = new HashMap<>();
-        response.put("results", games);
+        if (result.getResults().size() < lowHits) {
+            String suggestion = spellingService.suggest(query);
+            if (suggestion != null) {
+                response.put("didYouMean", suggestion);
+                if (result.getResults().isEmpty() && autoCorrect) {
+                    result = cachedSearch(suggestion, options);
+                    stemmedQuery = gameSearchService.getStemmedQuery(suggestion);
+                    response.put("correctedQuery", suggestion);
+                }
+            }
+        }
+        response.put("results", result.getResults());
         response.put("stemmedQuery", stemmedQuery);
+        if (result.isPartial()) {
+            response.put("partial", true);
+        }
+        if (result.getFacets() != null) {
+            response.put("facets", result.getFacets());
+        }
+        if (result.getExpansion() != null) {
+            response.put("expansion", result.getExpansion());
+        }
 
         return response;
     }
-}
\ No newline at end of file
+
+    //GET request handler streaming one JSON game per line as soon as each hit is ready,
+    //stemmed query is sent up front in a response header. The time budget applies here too, but as the
+    //headers are already sent when it runs out, a partial stream is not flagged
+    @GetMapping(value = "/search/stream", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> searchStream(@RequestParam String query,
+                                                              @RequestParam(required = false) String fields,
+                                                              @RequestParam(required = false) Double minPrice,
+                                                              @RequestParam(required = false) Double maxPrice,
+                                                              @RequestParam(required = false) String author,
+                                                              @RequestParam(required = false) String platform,
+                                                              @RequestParam(required = false) String sort,
+                                                              @RequestParam(required = false) String model,
+                                                              @RequestParam(required = false) Boolean collapse,
+                                                              @RequestParam(required = false) Long timeoutMs,
+                                                              @RequestParam(required = false) Boolean feedback,
+                                                              NativeWebRequest request) {
+        String stemmedQuery = gameSearchService.getStemmedQuery(query);
+        SearchOptions options = parseOptions(fields, minPrice, maxPrice, author, platform, sort, model, collapse,
+                feedback, timeoutMs);
+
+        //Held until the last hit is written, streams are not cached. Writing depends on the client, so the
+        //permit's latency does not feed the limit. Also released when the async request ends without the body
+        //finishing (timeout, error, task rejected)
+        ConcurrencyLimiter.Permit permit = limiter.acquire(false);
+        WebAsyncUtils.getAsyncManager(request).registerCallableInterceptor(STREAM_PERMIT,
+                new CallableProcessingInterceptor() {
+                    @Override
+                    public <T> void afterCompletion(NativeWebRequest request, Callable<T> task) {
+                        permit.release();
+                    }
+                });
+        StreamingResponseBody body = out -> {
+            try {
+                gameSearchService.streamGames(query, 50, options, game -> {
+                    try {
+                        out.write(objectMapper.writeValueAsBytes(game));
+                        out.write('\n');
+                        out.flush();
+                    } catch (IOException e) {
+                        //Client went away, stop hydrating further hits
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } finally {
+                permit.release();
+            }
+        };
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(NDJSON))
+                .header(STEMMED_QUERY_HEADER, stemmedQuery)
+                .body(body);
+    }
+
+    //GET request handler for games similar to one game, by the nearest neighbours of its vector (index built
+    //with --vectors), fusion=true fuses them with a lexical search for the game's most telling stems.
+    //404 for an unknown docno, 503 when the index has no vectors
+    @GetMapping("/similar")
+    public Map<String, Object> similar(@RequestParam String docno,
+                                       @RequestParam(defaultValue = "10") int count,
+                                       @RequestParam(required = false) String fields,
+                                       @RequestParam(required = false) Boolean collapse,
+                                       @RequestParam(defaultValue = "false") boolean fusion) {
+        if (count <= 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "count must be positive");
+        }
+        SearchOptions options = parseOptions(fields, null, null, null, null, null, null, collapse, false, null);
+
+        SearchResult result;
+        ConcurrencyLimiter.Permit permit = limiter.acquire();
+        try {
+            result = gameSearchService.similarGames(docno, Math.min(count, 50), options, fusion);
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
+        } finally {
+            permit.release();
+        }
+        if (result == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown docno '" + docno + "'");
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("docno", docno);
+        response.put("results", result.getResults());
+        response.put("fusion", fusion);
+        if (result.isPartial()) {
+            response.put("partial", true);
+        }
+        return response;
+    }
+
+    //Shed search: error message with Retry-After, before any search work is done
+    @ExceptionHandler(ConcurrencyLimiter.RejectedException.class)
+    public ResponseEntity<Map<String, Object>> rejected(ConcurrencyLimiter.RejectedException e) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("error", e.getMessage());
+        return ResponseEntity.status(rejectStatus)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(response);
+    }
+
+    //Result from the cache, or a search admitted by the concurrency limiter (RejectedException over the limit).
+    //The key is taken before searching, a refresh during the search stores a newer result under the old version
+    private SearchResult cachedSearch(String query, SearchOptions options) {
+        List<Object> key = resultCache.key(query, 50, options);
+        SearchResult result = resultCache.get(key);
+        if (result != null) {
+            return result;
+        }
+
+        ConcurrencyLimiter.Permit permit = limiter.acquire();
+        try {
+            result = gameSearchService.search(query, 50, options);
+        } finally {
+            permit.release();
+        }
+        resultCache.put(key, result);
+        return result;
+    }
+
+    //Collect request parameters shared by both search endpoints
+    private SearchOptions parseOptions(String fields, Double minPrice, Double maxPrice,
+                                       String author, String platform, String sort, String model,
+                                       Boolean collapse, Boolean feedback, Long requestTimeoutMs) {
+        SearchOptions options = new SearchOptions();
+        options.setFields(parseFields(fields));
+        options.setMinPrice(minPrice);
+        options.setMaxPrice(maxPrice);
+        options.setAuthor(author == null || author.isBlank() ? null : author);
+        options.setPlatform(platform == null || platform.isBlank() ? null : platform);
+
+        SortOrder sortOrder = SortOrder.fromParam(sort);
+        if (sortOrder == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Unknown sort '" + sort + "', expected relevance, price or -price");
+        }
+        options.setSort(sortOrder);
+
+        if (model != null && !model.isBlank()) {
+            if (!RankingModel.NAMES.contains(model)) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "Unknown model '" + model + "', expected one of " + RankingModel.NAMES);
+            }
+            options.setRankingModel(model);
+        }
+        options.setCollapse(collapse == null ? collapseDuplicates : collapse);
+        options.setFeedback(feedback == null ? feedbackEnabled : feedback);
+
+        if (requestTimeoutMs != null && requestTimeoutMs <= 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "timeoutMs must be positive");
+        }
+        long budget = timeoutMs;
+        if (requestTimeoutMs != null) {
+            budget = budget > 0 ? Math.min(budget, requestTimeoutMs) : requestTimeoutMs;
+        }
+        options.setTimeoutMs(budget);
+        return options;
+    }
+
+    //Parse comma separated fields= projection, "all" returns every field
+    private Set<String> parseFields(String fields) {
+        if (fields == null || fields.isBlank()) {
+            fields = defaultFields;
+        }
+        if (fields.trim().equalsIgnoreCase("all")) {
+            return Game.ALL_FIELDS;
+        }
+
+        Set<String> projection = new HashSet<>();
+        for (String field : fields.split(",")) {
+            String name = field.trim();
+            if (name.isEmpty()) continue;
+            if (!Game.ALL_FIELDS.contains(name)) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "Unknown field '" + name + "', expected one of " + Game.ALL_FIELDS);
+            }
+            projection.add(name);
+        }
+        return projection;
+    }
+}
@@ -0,0 +1,52 @@
+package com.itchsearch.controller;
+
+import com.itchsearch.model.ShardResult;
+import com.itchsearch.model.ShardSearchRequest;
+import com.itchsearch.model.ShardStats;
+import com.itchsearch.service.GameSearchService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+//REST controller of a shard node, called by the instance coordinating a search over the nodes
+//(itchsearch.shards.remote), not by the frontend
+@RestController
+@RequestMapping("/api/shard")
+public class ShardController {
+
+    @Autowired
+    private GameSearchService gameSearchService;
+
+    //GET request handler returning the query's collection statistics over this node's shards, plus those of
+    //the comma separated expansion stems of a feedback search
+    @GetMapping("/stats")
+    public ShardStats stats(@RequestParam String query,
+                            @RequestParam(required = false) String expansion) {
+        List<String> stems = new ArrayList<>();
+        if (expansion != null) {
+            for (String stem : expansion.split(",")) {
+                if (!stem.isBlank()) stems.add(stem.trim());
+            }
+        }
+        try {
+            return gameSearchService.shardStats(query, stems);
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
+        }
+    }
+
+    //POST request handler scoring this node's shards with the global statistics of the request
+    @PostMapping("/search")
+    public ShardResult search(@RequestBody ShardSearchRequest request) {
+        try {
+            return gameSearchService.searchShards(request);
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
+        }
+    }
+}
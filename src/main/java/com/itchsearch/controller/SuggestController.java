@@ -0,0 +1,46 @@
+package com.itchsearch.controller;
+
+import com.itchsearch.service.SpellingService;
+import com.itchsearch.service.SuggestService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+//REST controller for search box autocomplete and spelling suggestions
+@RestController
+@RequestMapping("/api")
+@CrossOrigin(origins = "*")
+public class SuggestController {
+
+    private static final int MAX_SUGGESTIONS = 20;
+
+    @Autowired
+    private SuggestService suggestService;
+
+    @Autowired
+    private SpellingService spellingService;
+
+    //GET request handler returning title and word completions for a prefix
+    @GetMapping("/suggest")
+    public Map<String, Object> suggest(@RequestParam String prefix,
+                                       @RequestParam(defaultValue = "5") int count) {
+        int limit = Math.max(1, Math.min(count, MAX_SUGGESTIONS));
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("titles", suggestService.suggestTitles(prefix, limit));
+        response.put("terms", suggestService.suggestTerms(prefix, limit));
+
+        return response;
+    }
+
+    //GET request handler returning the spelling-corrected query, didYouMean is null when there is none.
+    //The results page calls it after a stream with few hits
+    @GetMapping("/spell")
+    public Map<String, Object> spell(@RequestParam String query) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("didYouMean", spellingService.suggest(query));
+        return response;
+    }
+}
@@ -0,0 +1,106 @@
+package com.itchsearch.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//Index commit published by a primary for its replicas: the shard it belongs to, the commit generation and
+//every file of the commit with its length and footer checksum, so a replica can tell which files it already has.
+//The stats sidecars written for the commit are published with it, and the suggest FSTs with every commit
+public class CommitPoint {
+    private int shard;
+    private int shardCount;
+    private long generation;
+    private String segmentsFile;
+    private List<IndexFile> files = new ArrayList<>();
+    //Sidecars have no codec footer, their checksum is the commit id hash in their header (see CollectionStats)
+    private List<IndexFile> statsFiles = new ArrayList<>();
+    //The FSTs of data/suggest, not part of any commit, their checksum is a CRC32 of the whole file
+    private List<IndexFile> suggestFiles = new ArrayList<>();
+
+    public int getShard() {
+        return shard;
+    }
+
+    public void setShard(int shard) {
+        this.shard = shard;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    public void setShardCount(int shardCount) {
+        this.shardCount = shardCount;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public void setGeneration(long generation) {
+        this.generation = generation;
+    }
+
+    public String getSegmentsFile() {
+        return segmentsFile;
+    }
+
+    public void setSegmentsFile(String segmentsFile) {
+        this.segmentsFile = segmentsFile;
+    }
+
+    public List<IndexFile> getFiles() {
+        return files;
+    }
+
+    public void setFiles(List<IndexFile> files) {
+        this.files = files;
+    }
+
+    public List<IndexFile> getStatsFiles() {
+        return statsFiles;
+    }
+
+    public void setStatsFiles(List<IndexFile> statsFiles) {
+        this.statsFiles = statsFiles;
+    }
+
+    public List<IndexFile> getSuggestFiles() {
+        return suggestFiles;
+    }
+
+    public void setSuggestFiles(List<IndexFile> suggestFiles) {
+        this.suggestFiles = suggestFiles;
+    }
+
+    //One file of the commit, Lucene never rewrites a file under the same name within an index
+    public static class IndexFile {
+        private String name;
+        private long length;
+        private long checksum;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public void setLength(long length) {
+            this.length = length;
+        }
+
+        public long getChecksum() {
+            return checksum;
+        }
+
+        public void setChecksum(long checksum) {
+            this.checksum = checksum;
+        }
+    }
+}
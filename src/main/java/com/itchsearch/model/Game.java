@@ -1,12 +1,52 @@
 package com.itchsearch.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.Set;
+
+//Search hit returned to the frontend, fields that were not requested stay null and are left out of the JSON
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class Game {
+
+    //Field names accepted by the fields= projection
+    public static final String DOCNO = "docno";
+    public static final String SCORE = "score";
+    public static final String TITLE = "title";
+    public static final String AUTHOR = "author";
+    public static final String PRICE = "price";
+    public static final String URL = "url";
+    public static final String SNIPPET = "snippet";
+    public static final String FULL_DESCRIPTION = "fullDescription";
+    public static final String HIGHLIGHTED_DESCRIPTION = "highlightedDescription";
+
+    public static final Set<String> ALL_FIELDS =
+            Set.of(DOCNO, SCORE, TITLE, AUTHOR, PRICE, URL, SNIPPET, FULL_DESCRIPTION, HIGHLIGHTED_DESCRIPTION);
+
+    private String docno;
+    private Double score;
     private String title;
     private String author;
     private String price;
     private String url;
     private String fullDescription;
     private String highlightedDescription;
+    private String snippet;
+
+    public String getDocno() {
+        return docno;
+    }
+
+    public void setDocno(String docno) {
+        this.docno = docno;
+    }
+
+    public Double getScore() {
+        return score;
+    }
+
+    public void setScore(Double score) {
+        this.score = score;
+    }
 
     public String getTitle() {
         return title;
@@ -55,4 +95,12 @@ public class Game {
     public void setHighlightedDescription(String highlightedDescription) {
         this.highlightedDescription = highlightedDescription;
     }
+
+    public String getSnippet() {
+        return snippet;
+    }
+
+    public void setSnippet(String snippet) {
+        this.snippet = snippet;
+    }
 }
\ No newline at end of file
@@ -1,13 +1,13 @@
 package com.itchsearch.model;
 
-//Game document model mapped from TRECTEXT format
+//Game document model mapped from TRECTEXT format, or from JSON posted to /api/documents
 public class GameDocument {
-    private String docno;
-    private String title;
-    private String author;
-    private String url;
-    private String text;
-    private String price;
+    private String docno = "";
+    private String title = "";
+    private String author = "";
+    private String url = "";
+    private String text = "";
+    private String price = "";
 
     public GameDocument() {}
 
@@ -27,7 +27,7 @@ public class GameDocument {
     public void setTitle(String title) { this.title = nullToEmpty(title); }
 
     public String getAuthor() { return author; }
-    public void setAutor(String author) { this.author = nullToEmpty(author); }
+    public void setAuthor(String author) { this.author = nullToEmpty(author); }
 
     public String getUrl() { return url; }
     public void setUrl(String url) { this.url = nullToEmpty(url); }
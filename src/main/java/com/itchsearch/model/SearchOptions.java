@@ -0,0 +1,113 @@
+package com.itchsearch.model;
+
+import java.util.Set;
+
+//Per-request search options: returned fields, filters (price in dollars, author, platform),
+//result order, ranking model (null for the configured one), whether facet counts are wanted,
+//whether near-duplicates are collapsed, whether the query is expanded by pseudo-relevance feedback
+//and the time budget in milliseconds (0 for none)
+public class SearchOptions {
+    private Set<String> fields = Game.ALL_FIELDS;
+    private Double minPrice;
+    private Double maxPrice;
+    private String author;
+    private String platform;
+    private SortOrder sort = SortOrder.RELEVANCE;
+    private String rankingModel;
+    private boolean facets;
+    private boolean collapse;
+    private boolean feedback;
+    private long timeoutMs;
+
+    public Set<String> getFields() {
+        return fields;
+    }
+
+    public void setFields(Set<String> fields) {
+        this.fields = fields;
+    }
+
+    public Double getMinPrice() {
+        return minPrice;
+    }
+
+    public void setMinPrice(Double minPrice) {
+        this.minPrice = minPrice;
+    }
+
+    public Double getMaxPrice() {
+        return maxPrice;
+    }
+
+    public void setMaxPrice(Double maxPrice) {
+        this.maxPrice = maxPrice;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public void setAuthor(String author) {
+        this.author = author;
+    }
+
+    public String getPlatform() {
+        return platform;
+    }
+
+    public void setPlatform(String platform) {
+        this.platform = platform;
+    }
+
+    public SortOrder getSort() {
+        return sort;
+    }
+
+    public void setSort(SortOrder sort) {
+        this.sort = sort;
+    }
+
+    public String getRankingModel() {
+        return rankingModel;
+    }
+
+    public void setRankingModel(String rankingModel) {
+        this.rankingModel = rankingModel;
+    }
+
+    public boolean isFacets() {
+        return facets;
+    }
+
+    public void setFacets(boolean facets) {
+        this.facets = facets;
+    }
+
+    public boolean isCollapse() {
+        return collapse;
+    }
+
+    public void setCollapse(boolean collapse) {
+        this.collapse = collapse;
+    }
+
+    public boolean isFeedback() {
+        return feedback;
+    }
+
+    public void setFeedback(boolean feedback) {
+        this.feedback = feedback;
+    }
+
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public void setTimeoutMs(long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
+    public boolean hasPriceFilter() {
+        return minPrice != null || maxPrice != null;
+    }
+}
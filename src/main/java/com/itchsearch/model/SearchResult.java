@@ -0,0 +1,47 @@
+package com.itchsearch.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+//Hits of one search plus facet counts over every matching document, and the weighted stems added to the
+//query when it was expanded by feedback. Partial when the time budget ran out and the hits are the best
+//found before that
+public class SearchResult {
+    private List<Game> results = new ArrayList<>();
+    private Map<String, Map<String, Integer>> facets;
+    private Map<String, Double> expansion;
+    private boolean partial;
+
+    public List<Game> getResults() {
+        return results;
+    }
+
+    public void setResults(List<Game> results) {
+        this.results = results;
+    }
+
+    public Map<String, Map<String, Integer>> getFacets() {
+        return facets;
+    }
+
+    public void setFacets(Map<String, Map<String, Integer>> facets) {
+        this.facets = facets;
+    }
+
+    public Map<String, Double> getExpansion() {
+        return expansion;
+    }
+
+    public void setExpansion(Map<String, Double> expansion) {
+        this.expansion = expansion;
+    }
+
+    public boolean isPartial() {
+        return partial;
+    }
+
+    public void setPartial(boolean partial) {
+        this.partial = partial;
+    }
+}
@@ -0,0 +1,115 @@
+package com.itchsearch.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+//Top hits of one or more shards before they are merged with the other shards' hits, with full facet counts
+//(not cut to the top values, so counts of several shards can be added up) and the partial flag
+public class ShardResult {
+    private List<Hit> hits = new ArrayList<>();
+    private Map<String, Map<String, Integer>> facets;
+    private boolean partial;
+
+    public List<Hit> getHits() {
+        return hits;
+    }
+
+    public void setHits(List<Hit> hits) {
+        this.hits = hits;
+    }
+
+    public Map<String, Map<String, Integer>> getFacets() {
+        return facets;
+    }
+
+    public void setFacets(Map<String, Map<String, Integer>> facets) {
+        this.facets = facets;
+    }
+
+    public boolean isPartial() {
+        return partial;
+    }
+
+    public void setPartial(boolean partial) {
+        this.partial = partial;
+    }
+
+    //One scored document: shard and doc id locate it, sortValue is the price in cents when sorting by price
+    //and group its DUP_GROUP for collapsing across shards. game is set once the hit is hydrated, terms
+    //(most frequent CONTENT stems) and length only in a feedback first pass
+    public static class Hit {
+        private int shard;
+        private int docId;
+        private double score;
+        private long sortValue;
+        private long group;
+        private Game game;
+        private Map<String, Integer> terms;
+        private int length;
+
+        public int getShard() {
+            return shard;
+        }
+
+        public void setShard(int shard) {
+            this.shard = shard;
+        }
+
+        public int getDocId() {
+            return docId;
+        }
+
+        public void setDocId(int docId) {
+            this.docId = docId;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        public void setScore(double score) {
+            this.score = score;
+        }
+
+        public long getSortValue() {
+            return sortValue;
+        }
+
+        public void setSortValue(long sortValue) {
+            this.sortValue = sortValue;
+        }
+
+        public long getGroup() {
+            return group;
+        }
+
+        public void setGroup(long group) {
+            this.group = group;
+        }
+
+        public Game getGame() {
+            return game;
+        }
+
+        public void setGame(Game game) {
+            this.game = game;
+        }
+
+        public Map<String, Integer> getTerms() {
+            return terms;
+        }
+
+        public void setTerms(Map<String, Integer> terms) {
+            this.terms = terms;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public void setLength(int length) {
+            this.length = length;
+        }
+    }
+}
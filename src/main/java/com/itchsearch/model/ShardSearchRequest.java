@@ -0,0 +1,82 @@
+package com.itchsearch.model;
+
+import java.util.Map;
+
+//Search sent by a coordinating instance to a shard node: the query as typed, the hits wanted, the options
+//and the global collection statistics to score with. timeoutMs is what is left of the coordinator's budget.
+//Pseudo-relevance feedback is run by the coordinator: a first pass asks for feedbackTerms (each hit's terms
+//and length), the search proper sends the expansion stems with their weights and the query terms' weight
+public class ShardSearchRequest {
+    private String query;
+    private int maxResults;
+    private SearchOptions options;
+    private ShardStats stats;
+    private long timeoutMs;
+    private Map<String, Double> expansion;
+    private double termWeight = 1.0;
+    private boolean feedbackTerms;
+
+    public String getQuery() {
+        return query;
+    }
+
+    public void setQuery(String query) {
+        this.query = query;
+    }
+
+    public int getMaxResults() {
+        return maxResults;
+    }
+
+    public void setMaxResults(int maxResults) {
+        this.maxResults = maxResults;
+    }
+
+    public SearchOptions getOptions() {
+        return options;
+    }
+
+    public void setOptions(SearchOptions options) {
+        this.options = options;
+    }
+
+    public ShardStats getStats() {
+        return stats;
+    }
+
+    public void setStats(ShardStats stats) {
+        this.stats = stats;
+    }
+
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public void setTimeoutMs(long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
+    public Map<String, Double> getExpansion() {
+        return expansion;
+    }
+
+    public void setExpansion(Map<String, Double> expansion) {
+        this.expansion = expansion;
+    }
+
+    public double getTermWeight() {
+        return termWeight;
+    }
+
+    public void setTermWeight(double termWeight) {
+        this.termWeight = termWeight;
+    }
+
+    public boolean isFeedbackTerms() {
+        return feedbackTerms;
+    }
+
+    public void setFeedbackTerms(boolean feedbackTerms) {
+        this.feedbackTerms = feedbackTerms;
+    }
+}
@@ -0,0 +1,94 @@
+package com.itchsearch.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+//Collection statistics of one query over some shards, per field: collection length, documents with the
+//field, the frequencies of the query terms and of its phrase and proximity features (primary field only).
+//Summed over every shard they make the global statistics the shards score with, so scores of different
+//shards are comparable
+public class ShardStats {
+    private Map<String, FieldStats> fields = new HashMap<>();
+
+    public Map<String, FieldStats> getFields() {
+        return fields;
+    }
+
+    public void setFields(Map<String, FieldStats> fields) {
+        this.fields = fields;
+    }
+
+    //Add the statistics of other shards to these
+    public void add(ShardStats other) {
+        for (Map.Entry<String, FieldStats> entry : other.fields.entrySet()) {
+            fields.computeIfAbsent(entry.getKey(), field -> new FieldStats()).add(entry.getValue());
+        }
+    }
+
+    public static class FieldStats {
+        private long collectionLength;
+        private int docCount;
+        private Map<String, Long> collectionFreqs = new HashMap<>();
+        private Map<String, Integer> docFreqs = new HashMap<>();
+        //Occurrences of each phrase/proximity feature and documents containing it, by feature key
+        private Map<String, Long> featureFreqs = new HashMap<>();
+        private Map<String, Integer> featureDocFreqs = new HashMap<>();
+
+        public long getCollectionLength() {
+            return collectionLength;
+        }
+
+        public void setCollectionLength(long collectionLength) {
+            this.collectionLength = collectionLength;
+        }
+
+        public int getDocCount() {
+            return docCount;
+        }
+
+        public void setDocCount(int docCount) {
+            this.docCount = docCount;
+        }
+
+        public Map<String, Long> getCollectionFreqs() {
+            return collectionFreqs;
+        }
+
+        public void setCollectionFreqs(Map<String, Long> collectionFreqs) {
+            this.collectionFreqs = collectionFreqs;
+        }
+
+        public Map<String, Integer> getDocFreqs() {
+            return docFreqs;
+        }
+
+        public void setDocFreqs(Map<String, Integer> docFreqs) {
+            this.docFreqs = docFreqs;
+        }
+
+        public Map<String, Long> getFeatureFreqs() {
+            return featureFreqs;
+        }
+
+        public void setFeatureFreqs(Map<String, Long> featureFreqs) {
+            this.featureFreqs = featureFreqs;
+        }
+
+        public Map<String, Integer> getFeatureDocFreqs() {
+            return featureDocFreqs;
+        }
+
+        public void setFeatureDocFreqs(Map<String, Integer> featureDocFreqs) {
+            this.featureDocFreqs = featureDocFreqs;
+        }
+
+        public void add(FieldStats other) {
+            collectionLength += other.collectionLength;
+            docCount += other.docCount;
+            other.collectionFreqs.forEach((term, freq) -> collectionFreqs.merge(term, freq, Long::sum));
+            other.docFreqs.forEach((term, freq) -> docFreqs.merge(term, freq, Integer::sum));
+            other.featureFreqs.forEach((feature, freq) -> featureFreqs.merge(feature, freq, Long::sum));
+            other.featureDocFreqs.forEach((feature, freq) -> featureDocFreqs.merge(feature, freq, Integer::sum));
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.itchsearch.model;
+
+//Result ordering accepted by the sort= parameter
+public enum SortOrder {
+    RELEVANCE,
+    PRICE_ASC,
+    PRICE_DESC;
+
+    //Parse "relevance", "price" or "-price", null if unknown
+    public static SortOrder fromParam(String value) {
+        if (value == null || value.isBlank() || value.equalsIgnoreCase("relevance")) return RELEVANCE;
+        if (value.equalsIgnoreCase("price")) return PRICE_ASC;
+        if (value.equalsIgnoreCase("-price")) return PRICE_DESC;
+        return null;
+    }
+}
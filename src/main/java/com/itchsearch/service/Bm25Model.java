@@ -0,0 +1,48 @@
+package com.itchsearch.service;
+
+import java.io.IOException;
+
+//Okapi BM25, per field with that field's average length, fields combined by their mixture weights
+public class Bm25Model implements RankingModel {
+
+    private final double k1;
+    private final double b;
+
+    public Bm25Model(double k1, double b) {
+        this.k1 = k1;
+        this.b = b;
+    }
+
+    @Override
+    public String getName() {
+        return BM25;
+    }
+
+    //Lucene's non-negative idf: log(1 + (N - df + 0.5) / (df + 0.5))
+    @Override
+    public double termWeight(CollectionStats stats, String term) throws IOException {
+        int docFreq = stats.docFreq(term);
+        return Math.log(1 + (stats.getDocCount() - docFreq + 0.5) / (docFreq + 0.5));
+    }
+
+    @Override
+    public double fieldScore(int tf, int docLength, double idf, CollectionStats stats, double mu) {
+        if (tf == 0) return 0.0;
+        double lengthNorm = 1 - b + b * docLength / stats.getAverageDocLength();
+        return idf * tf * (k1 + 1) / (tf + k1 * lengthNorm);
+    }
+
+    @Override
+    public double termScore(double weightedFieldScore) {
+        return weightedFieldScore;
+    }
+
+    //A feature is scored like a term of its own: idf from the documents containing it, frequency saturated
+    //by k1. Phrase counts are not length-normalized, a phrase match says as much in a long text
+    @Override
+    public double featureBoost(double weight, int freq, long collectionFreq, int documentFreq,
+                               long collectionLength, int docCount, double mu) {
+        double idf = Math.log(1 + (docCount - documentFreq + 0.5) / (documentFreq + 0.5));
+        return weight * idf * freq * (k1 + 1) / (freq + k1);
+    }
+}
@@ -0,0 +1,694 @@
+package com.itchsearch.service;
+
+import com.itchsearch.model.ShardStats;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermVectors;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+//Collection statistics of one field for one reader: document lengths, collection length and term frequencies.
+//Either computed from the index or memory-mapped from the binary sidecar IndexBuilderMain writes
+//next to the index. Sidecar layout (big-endian):
+//  int magic, int version, long commit generation, int maxDoc, int numTerms, long collectionLength,
+//  int docCount, int commit id hash, long[numTerms] collection freqs, int[numTerms] doc freqs,
+//  int[numTerms + 1] bound offsets, int[2 * bound points] (tf, length) score bound points (see TermBound),
+//  int[maxDoc] doc lengths, int[numTerms + 1] term offsets, UTF-8 term bytes in index (BytesRef) order,
+//  int[maxDoc + 1] doc term offsets, int[2 * doc terms] (term ordinal, tf) of each document's most frequent terms
+//A near-real-time reader reopened from an earlier one gets its statistics with refresh, which only reads
+//the segments that are new.
+public class CollectionStats {
+
+    private static final int MAGIC = 0x49545354; //"ITST"
+    private static final int VERSION = 5;
+    private static final int HEADER_BYTES = 40;
+    //Terms per document kept for pseudo-relevance feedback, the most frequent ones carry nearly all of
+    //a document's weight in the relevance model
+    private static final int DOC_TERMS = 64;
+
+    private final IndexReader reader;
+    private final String field;
+    private final IntBuffer docLengths;
+    private final long collectionLength;
+    //Documents with a non-empty field
+    private final int docCount;
+    //Collection length and document count of this index alone, differ in a global view (withGlobal)
+    private final long localCollectionLength;
+    private final int localDocCount;
+    private final boolean hasPositions;
+    private final Map<String, Long> collectionFreqCache = new ConcurrentHashMap<>();
+    private final Map<String, Integer> docFreqCache = new ConcurrentHashMap<>();
+    //Phrase/proximity feature frequencies of a global view, empty for an index's own statistics
+    private final Map<String, Long> featureFreqs;
+    private final Map<String, Integer> featureDocFreqs;
+    private final Map<String, TermBound> termBoundCache;
+    //docBase of each segment of the reader by segment core, to find the segments a reopened reader shares
+    private final Map<Object, Integer> leafBases;
+    //Sidecar stats of an earlier reader whose score bounds and document terms still cover its segments'
+    //documents, null if none
+    private final CollectionStats boundBase;
+
+    //Mapped term table of the sidecar, null when stats were computed from the index
+    private final ByteBuffer termTable;
+    private final int numTerms;
+    private final int freqsOffset;
+    private final int docFreqsOffset;
+    private final int boundOffsetsOffset;
+    private final int boundPointsOffset;
+    private final int termOffsetsOffset;
+    private final int termBytesOffset;
+    private final int docTermOffsetsOffset;
+    private final int docTermsOffset;
+
+    private CollectionStats(IndexReader reader, String field, int[] docLengths, long collectionLength,
+                            int docCount, boolean hasPositions, CollectionStats boundBase) {
+        this.reader = reader;
+        this.field = field;
+        this.leafBases = leafBases(reader);
+        this.boundBase = boundBase;
+        this.docLengths = IntBuffer.wrap(docLengths);
+        this.collectionLength = collectionLength;
+        this.docCount = docCount;
+        this.localCollectionLength = collectionLength;
+        this.localDocCount = docCount;
+        this.featureFreqs = Map.of();
+        this.featureDocFreqs = Map.of();
+        this.termBoundCache = new ConcurrentHashMap<>();
+        this.hasPositions = hasPositions;
+        this.termTable = null;
+        this.numTerms = 0;
+        this.freqsOffset = 0;
+        this.docFreqsOffset = 0;
+        this.boundOffsetsOffset = 0;
+        this.boundPointsOffset = 0;
+        this.termOffsetsOffset = 0;
+        this.termBytesOffset = 0;
+        this.docTermOffsetsOffset = 0;
+        this.docTermsOffset = 0;
+    }
+
+    private CollectionStats(IndexReader reader, String field, ByteBuffer sidecar, boolean hasPositions) {
+        this.reader = reader;
+        this.field = field;
+        this.leafBases = leafBases(reader);
+        this.boundBase = null;
+        this.hasPositions = hasPositions;
+        this.termTable = sidecar;
+        this.termBoundCache = new ConcurrentHashMap<>();
+
+        int maxDoc = sidecar.getInt(16);
+        this.numTerms = sidecar.getInt(20);
+        this.collectionLength = sidecar.getLong(24);
+        this.docCount = sidecar.getInt(32);
+        this.localCollectionLength = collectionLength;
+        this.localDocCount = docCount;
+        this.featureFreqs = Map.of();
+        this.featureDocFreqs = Map.of();
+        this.freqsOffset = HEADER_BYTES;
+        this.docFreqsOffset = freqsOffset + 8 * numTerms;
+        this.boundOffsetsOffset = docFreqsOffset + 4 * numTerms;
+        this.boundPointsOffset = boundOffsetsOffset + 4 * (numTerms + 1);
+        int boundPoints = sidecar.getInt(boundOffsetsOffset + 4 * numTerms);
+        int docLengthsOffset = boundPointsOffset + 8 * boundPoints;
+        this.termOffsetsOffset = docLengthsOffset + 4 * maxDoc;
+        this.termBytesOffset = termOffsetsOffset + 4 * (numTerms + 1);
+        this.docTermOffsetsOffset = termBytesOffset + sidecar.getInt(termOffsetsOffset + 4 * numTerms);
+        this.docTermsOffset = docTermOffsetsOffset + 4 * (maxDoc + 1);
+        this.docLengths = sidecar.slice(docLengthsOffset, 4 * maxDoc).asIntBuffer();
+    }
+
+    //Same index and term bounds as local, collection-level statistics from global
+    private CollectionStats(CollectionStats local, ShardStats.FieldStats global) {
+        this.reader = local.reader;
+        this.field = local.field;
+        this.leafBases = local.leafBases;
+        this.boundBase = local.boundBase;
+        this.docLengths = local.docLengths;
+        this.collectionLength = global.getCollectionLength();
+        this.docCount = global.getDocCount();
+        this.localCollectionLength = local.localCollectionLength;
+        this.localDocCount = local.localDocCount;
+        this.featureFreqs = global.getFeatureFreqs();
+        this.featureDocFreqs = global.getFeatureDocFreqs();
+        this.hasPositions = local.hasPositions;
+        this.termBoundCache = local.termBoundCache;
+        this.collectionFreqCache.putAll(global.getCollectionFreqs());
+        this.docFreqCache.putAll(global.getDocFreqs());
+        this.termTable = local.termTable;
+        this.numTerms = local.numTerms;
+        this.freqsOffset = local.freqsOffset;
+        this.docFreqsOffset = local.docFreqsOffset;
+        this.boundOffsetsOffset = local.boundOffsetsOffset;
+        this.boundPointsOffset = local.boundPointsOffset;
+        this.termOffsetsOffset = local.termOffsetsOffset;
+        this.termBytesOffset = local.termBytesOffset;
+        this.docTermOffsetsOffset = local.docTermOffsetsOffset;
+        this.docTermsOffset = local.docTermsOffset;
+    }
+
+    //Statistics of one shard as seen by a search over all shards: doc lengths and term score bounds stay the
+    //shard's, collection length, document count and the frequencies of the terms and phrase/proximity
+    //features in global (all of the query's) are the sums over the shards, so every shard scores with the
+    //same term weights and feature backgrounds. Frequencies of terms missing from global fall back to the
+    //shard's own
+    public CollectionStats withGlobal(ShardStats.FieldStats global) {
+        return new CollectionStats(this, global);
+    }
+
+    //This shard's statistics for the terms, to be summed with the other shards' into the global ones
+    public ShardStats.FieldStats localStats(Iterable<String> terms) throws IOException {
+        ShardStats.FieldStats local = new ShardStats.FieldStats();
+        local.setCollectionLength(localCollectionLength);
+        local.setDocCount(docCount);
+        for (String term : terms) {
+            local.getCollectionFreqs().put(term, collectionFreq(term));
+            local.getDocFreqs().put(term, docFreq(term));
+        }
+        return local;
+    }
+
+    //Read every document length from term vectors, same counts the original per-document scorer used
+    public static CollectionStats compute(IndexReader reader, String field) throws IOException {
+        int[] docLengths = new int[reader.maxDoc()];
+        long collectionLength = 0;
+        int docCount = 0;
+
+        readLengths(reader.termVectors(), field, docLengths, 0, reader.maxDoc());
+        for (int length : docLengths) {
+            collectionLength += length;
+            if (length > 0) docCount++;
+        }
+
+        return new CollectionStats(reader, field, docLengths, collectionLength, docCount,
+                hasPositions(reader, field), null);
+    }
+
+    //Statistics of a reader reopened from previous's (either may be the newer one). Lengths of the segments
+    //both share are copied, the other segments (flushed or merged since) are read from term vectors, and
+    //term statistics come from the new reader. Score bounds mapped from a sidecar stay as a base that is
+    //widened with the postings of segments it did not cover: documents merged out of its segments are
+    //then counted twice, which still gives an upper bound
+    public static CollectionStats refresh(CollectionStats previous, IndexReader reader) throws IOException {
+        int[] docLengths = new int[reader.maxDoc()];
+        for (LeafReaderContext leaf : reader.leaves()) {
+            Integer previousBase = previous.leafBases.get(coreKey(leaf));
+            int maxDoc = leaf.reader().maxDoc();
+            if (previousBase != null) {
+                for (int doc = 0; doc < maxDoc; doc++) {
+                    docLengths[leaf.docBase + doc] = previous.docLength(previousBase + doc);
+                }
+            } else {
+                readLengths(leaf.reader().termVectors(), previous.field, docLengths, leaf.docBase, maxDoc);
+            }
+        }
+
+        long collectionLength = 0;
+        int docCount = 0;
+        for (int length : docLengths) {
+            collectionLength += length;
+            if (length > 0) docCount++;
+        }
+
+        CollectionStats boundBase = previous.isFromSidecar() ? previous : previous.boundBase;
+        return new CollectionStats(reader, previous.field, docLengths, collectionLength, docCount,
+                hasPositions(reader, previous.field), boundBase);
+    }
+
+    //Field lengths of maxDoc documents from term vectors, stored from docLengths[docBase]
+    private static void readLengths(TermVectors termVectors, String field, int[] docLengths, int docBase,
+                                    int maxDoc) throws IOException {
+        for (int docId = 0; docId < maxDoc; docId++) {
+            Terms terms = termVectors.get(docId, field);
+            if (terms == null) continue;
+
+            int length = 0;
+            TermsEnum termsEnum = terms.iterator();
+            while (termsEnum.next() != null) {
+                length += termsEnum.totalTermFreq();
+            }
+            docLengths[docBase + docId] = length;
+        }
+    }
+
+    private static Map<Object, Integer> leafBases(IndexReader reader) {
+        Map<Object, Integer> bases = new HashMap<>();
+        for (LeafReaderContext leaf : reader.leaves()) {
+            bases.put(coreKey(leaf), leaf.docBase);
+        }
+        return bases;
+    }
+
+    //Identity of a segment's postings and term vectors, the same across reopens until it is merged away
+    private static Object coreKey(LeafReaderContext leaf) {
+        IndexReader.CacheHelper helper = leaf.reader().getCoreCacheHelper();
+        return helper != null ? helper.getKey() : leaf.reader();
+    }
+
+    //Sidecar file of a field inside the stats directory
+    public static Path sidecarFile(Path statsDir, String field) {
+        return statsDir.resolve(field + ".stats");
+    }
+
+    //Memory-map the sidecar written for this reader's commit, null when it is missing or was written
+    //for another commit (the caller then falls back to compute). Generation alone is not enough: a rebuilt
+    //or reordered index starts over at the same generation, the commit's unique id tells them apart
+    public static CollectionStats load(Path file, DirectoryReader reader, String field) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        ByteBuffer sidecar;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) return null;
+            sidecar = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        long generation = reader.getIndexCommit().getGeneration();
+        if (sidecar.getInt(0) != MAGIC || sidecar.getInt(4) != VERSION
+                || sidecar.getLong(8) != generation || sidecar.getInt(16) != reader.maxDoc()
+                || sidecar.getInt(36) != commitIdHash(reader)) {
+            System.err.println("Warning: stats sidecar " + file + " does not match index commit (generation "
+                    + generation + "), recomputing");
+            return null;
+        }
+        return new CollectionStats(reader, field, sidecar, hasPositions(reader, field));
+    }
+
+    //Write the sidecar for a freshly committed index: doc lengths from term vectors (as compute does)
+    //plus the collection frequency and score bound of every term of the field, and the most frequent
+    //terms of every document
+    public static void write(Path file, DirectoryReader reader, String field) throws IOException {
+        CollectionStats stats = compute(reader, field);
+
+        List<byte[]> terms = new ArrayList<>();
+        List<Long> freqs = new ArrayList<>();
+        List<Integer> docFreqs = new ArrayList<>();
+        List<TermBound> bounds = new ArrayList<>();
+        Terms fieldTerms = MultiTerms.getTerms(reader, field);
+        if (fieldTerms != null) {
+            TermsEnum termsEnum = fieldTerms.iterator();
+            BytesRef term;
+            PostingsEnum postings = null;
+            int[] minLengthByTf = new int[16];
+            while ((term = termsEnum.next()) != null) {
+                terms.add(BytesRef.deepCopyOf(term).bytes);
+                freqs.add(termsEnum.totalTermFreq());
+                docFreqs.add(termsEnum.docFreq());
+                //Postings of a MultiTerms enum carry global doc ids
+                postings = termsEnum.postings(postings, PostingsEnum.FREQS);
+                minLengthByTf = stats.minLengthByTf(postings, 0, minLengthByTf);
+                bounds.add(frontier(minLengthByTf));
+            }
+        }
+
+        //Written next to the sidecar then moved over it: a search service may have the old one mapped
+        //(truncating a mapped file crashes its readers) and a partly written sidecar must never be loaded
+        Files.createDirectories(file.getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream fileOut = Files.newOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(reader.getIndexCommit().getGeneration());
+            out.writeInt(reader.maxDoc());
+            out.writeInt(terms.size());
+            out.writeLong(stats.collectionLength);
+            out.writeInt(stats.docCount);
+            out.writeInt(commitIdHash(reader));
+            for (long freq : freqs) {
+                out.writeLong(freq);
+            }
+            for (int docFreq : docFreqs) {
+                out.writeInt(docFreq);
+            }
+            int points = 0;
+            for (TermBound bound : bounds) {
+                out.writeInt(points);
+                points += bound.size();
+            }
+            out.writeInt(points);
+            for (TermBound bound : bounds) {
+                for (int p = 0; p < bound.size(); p++) {
+                    out.writeInt(bound.tfs()[p]);
+                    out.writeInt(bound.lengths()[p]);
+                }
+            }
+            for (int docId = 0; docId < reader.maxDoc(); docId++) {
+                out.writeInt(stats.docLength(docId));
+            }
+            int offset = 0;
+            for (byte[] term : terms) {
+                out.writeInt(offset);
+                offset += term.length;
+            }
+            out.writeInt(offset);
+            for (byte[] term : terms) {
+                out.write(term);
+            }
+            writeDocTerms(out, reader, field, terms);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    //Offsets then (ordinal, tf) entries of each document's DOC_TERMS most frequent terms, read from term
+    //vectors in the same pass order as the doc lengths. terms is the field's term table in index order
+    private static void writeDocTerms(DataOutputStream out, DirectoryReader reader, String field, List<byte[]> terms)
+            throws IOException {
+        Map<BytesRef, Integer> ordinals = new HashMap<>();
+        for (int ord = 0; ord < terms.size(); ord++) {
+            ordinals.put(new BytesRef(terms.get(ord)), ord);
+        }
+
+        TermVectors termVectors = reader.termVectors();
+        List<int[]> docTerms = new ArrayList<>();
+        int[][] entries = new int[reader.maxDoc()][];
+        for (int docId = 0; docId < reader.maxDoc(); docId++) {
+            docTerms.clear();
+            Terms vector = termVectors.get(docId, field);
+            if (vector != null) {
+                TermsEnum termsEnum = vector.iterator();
+                BytesRef term;
+                while ((term = termsEnum.next()) != null) {
+                    Integer ord = ordinals.get(term);
+                    if (ord != null) docTerms.add(new int[]{ord, (int) termsEnum.totalTermFreq()});
+                }
+            }
+            //Highest tf first, the term table order breaks ties
+            docTerms.sort((a, b) -> a[1] != b[1] ? Integer.compare(b[1], a[1]) : Integer.compare(a[0], b[0]));
+            int kept = Math.min(DOC_TERMS, docTerms.size());
+            entries[docId] = new int[2 * kept];
+            for (int t = 0; t < kept; t++) {
+                entries[docId][2 * t] = docTerms.get(t)[0];
+                entries[docId][2 * t + 1] = docTerms.get(t)[1];
+            }
+        }
+
+        int offset = 0;
+        for (int[] docEntries : entries) {
+            out.writeInt(offset);
+            offset += docEntries.length / 2;
+        }
+        out.writeInt(offset);
+        for (int[] docEntries : entries) {
+            for (int value : docEntries) {
+                out.writeInt(value);
+            }
+        }
+    }
+
+    private static int commitIdHash(DirectoryReader reader) throws IOException {
+        return commitIdHash(reader.getIndexCommit());
+    }
+
+    //Hash of a commit's unique id, stored in the header of the sidecars written for it
+    public static int commitIdHash(IndexCommit commit) throws IOException {
+        return Arrays.hashCode(SegmentInfos.readCommit(commit.getDirectory(), commit.getSegmentsFileName()).getId());
+    }
+
+    //Whether a sidecar was written for the commit of this generation and id hash, from its header only.
+    //Used by replication, where a sidecar copied with a byte-identical commit still matches it
+    public static boolean isSidecarFor(Path file, long generation, int commitIdHash) throws IOException {
+        byte[] bytes;
+        try (InputStream in = Files.newInputStream(file)) {
+            bytes = in.readNBytes(HEADER_BYTES);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.wrap(bytes);
+        return bytes.length == HEADER_BYTES && header.getInt(0) == MAGIC && header.getInt(4) == VERSION
+                && header.getLong(8) == generation && header.getInt(36) == commitIdHash;
+    }
+
+    private static boolean hasPositions(IndexReader reader, String field) {
+        FieldInfo fieldInfo = FieldInfos.getMergedFieldInfos(reader).fieldInfo(field);
+        return fieldInfo != null
+                && fieldInfo.getIndexOptions().compareTo(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS) >= 0;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public int docLength(int docId) {
+        return docLengths.get(docId);
+    }
+
+    public long getCollectionLength() {
+        return collectionLength;
+    }
+
+    public long getLocalCollectionLength() {
+        return localCollectionLength;
+    }
+
+    public int getDocCount() {
+        return docCount;
+    }
+
+    public int getLocalDocCount() {
+        return localDocCount;
+    }
+
+    //Occurrences of a phrase/proximity feature over all shards, null when this is not a global view of them
+    public Long featureFreq(String feature) {
+        return featureFreqs.get(feature);
+    }
+
+    //Documents containing a phrase/proximity feature over all shards, null like featureFreq
+    public Integer featureDocFreq(String feature) {
+        return featureDocFreqs.get(feature);
+    }
+
+    public double getAverageDocLength() {
+        return docCount == 0 ? 0.0 : (double) collectionLength / docCount;
+    }
+
+    //Whether the field was indexed with positions, needed for phrase and proximity features
+    public boolean hasPositions() {
+        return hasPositions;
+    }
+
+    //Total occurrences of a term in the field across the collection, cached per term
+    public long collectionFreq(String term) throws IOException {
+        Long cached = collectionFreqCache.get(term);
+        if (cached != null) {
+            return cached;
+        }
+
+        long totalFreq;
+        if (termTable != null) {
+            int ord = ordinal(term);
+            totalFreq = ord < 0 ? 0 : termTable.getLong(freqsOffset + 8 * ord);
+        } else {
+            totalFreq = reader.totalTermFreq(new Term(field, term));
+        }
+        collectionFreqCache.put(term, totalFreq);
+        return totalFreq;
+    }
+
+    //Number of documents containing a term in the field, cached per term
+    public int docFreq(String term) throws IOException {
+        Integer cached = docFreqCache.get(term);
+        if (cached != null) {
+            return cached;
+        }
+
+        int docFreq;
+        if (termTable != null) {
+            int ord = ordinal(term);
+            docFreq = ord < 0 ? 0 : termTable.getInt(docFreqsOffset + 4 * ord);
+        } else {
+            docFreq = reader.docFreq(new Term(field, term));
+        }
+        docFreqCache.put(term, docFreq);
+        return docFreq;
+    }
+
+    //(tf, length) points bounding a term's field score (see TermBound), cached per term.
+    //Mapped from the sidecar, or read from the term's postings when the stats were computed
+    //(only in segments the bound base does not cover after a refresh)
+    public TermBound termBound(String term) throws IOException {
+        TermBound cached = termBoundCache.get(term);
+        if (cached != null) {
+            return cached;
+        }
+
+        TermBound bound = TermBound.ABSENT;
+        if (termTable != null) {
+            int ord = ordinal(term);
+            if (ord >= 0) {
+                int from = termTable.getInt(boundOffsetsOffset + 4 * ord);
+                int to = termTable.getInt(boundOffsetsOffset + 4 * (ord + 1));
+                int[] tfs = new int[to - from];
+                int[] lengths = new int[to - from];
+                for (int p = 0; p < tfs.length; p++) {
+                    tfs[p] = termTable.getInt(boundPointsOffset + 8 * (from + p));
+                    lengths[p] = termTable.getInt(boundPointsOffset + 8 * (from + p) + 4);
+                }
+                bound = new TermBound(tfs, lengths);
+            }
+        } else {
+            int[] minLengthByTf = new int[16];
+            if (boundBase != null) {
+                TermBound base = boundBase.termBound(term);
+                for (int p = 0; p < base.size(); p++) {
+                    minLengthByTf = addPoint(minLengthByTf, base.tfs()[p], base.lengths()[p] + 1);
+                }
+            }
+            for (LeafReaderContext leaf : reader.leaves()) {
+                if (boundBase != null && boundBase.leafBases.containsKey(coreKey(leaf))) continue;
+                Terms terms = leaf.reader().terms(field);
+                if (terms == null) continue;
+                TermsEnum termsEnum = terms.iterator();
+                if (!termsEnum.seekExact(new BytesRef(term))) continue;
+                minLengthByTf = minLengthByTf(termsEnum.postings(null, PostingsEnum.FREQS), leaf.docBase,
+                        minLengthByTf);
+            }
+            bound = frontier(minLengthByTf);
+        }
+        termBoundCache.put(term, bound);
+        return bound;
+    }
+
+    //Shortest field length seen per tf (index = tf, 0 = not seen), docBase maps the postings' doc ids to
+    //this reader's. The array is grown as needed and returned
+    private int[] minLengthByTf(PostingsEnum postings, int docBase, int[] minLengthByTf) throws IOException {
+        for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+            int tf = postings.freq();
+            //Lengths are stored + 1 so an empty field still differs from "not seen"
+            minLengthByTf = addPoint(minLengthByTf, tf, docLength(docBase + doc) + 1);
+        }
+        return minLengthByTf;
+    }
+
+    private static int[] addPoint(int[] minLengthByTf, int tf, int length) {
+        if (tf >= minLengthByTf.length) {
+            minLengthByTf = Arrays.copyOf(minLengthByTf, Math.max(tf + 1, 2 * minLengthByTf.length));
+        }
+        if (minLengthByTf[tf] == 0 || length < minLengthByTf[tf]) minLengthByTf[tf] = length;
+        return minLengthByTf;
+    }
+
+    //Points not beaten by a higher tf with a field at most as long, highest tf first.
+    //Clears minLengthByTf for reuse
+    private static TermBound frontier(int[] minLengthByTf) {
+        List<int[]> points = new ArrayList<>();
+        int shortest = Integer.MAX_VALUE;
+        for (int tf = minLengthByTf.length - 1; tf > 0; tf--) {
+            int length = minLengthByTf[tf] - 1;
+            if (minLengthByTf[tf] != 0 && length < shortest) {
+                points.add(new int[]{tf, length});
+                shortest = length;
+            }
+            minLengthByTf[tf] = 0;
+        }
+
+        int[] tfs = new int[points.size()];
+        int[] lengths = new int[points.size()];
+        for (int p = 0; p < tfs.length; p++) {
+            tfs[p] = points.get(p)[0];
+            lengths[p] = points.get(p)[1];
+        }
+        return tfs.length == 0 ? TermBound.ABSENT : new TermBound(tfs, lengths);
+    }
+
+    //Most frequent terms of a document with their tf (at most DOC_TERMS, from the sidecar), null when the
+    //sidecar does not cover the document (stats computed from the index, or a segment new since the sidecar)
+    public Map<String, Integer> docTerms(int docId) {
+        if (termTable == null) {
+            if (boundBase == null) return null;
+            List<LeafReaderContext> leaves = reader.leaves();
+            LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docId, leaves));
+            Integer baseDocBase = boundBase.leafBases.get(coreKey(leaf));
+            return baseDocBase == null ? null : boundBase.docTerms(baseDocBase + docId - leaf.docBase);
+        }
+
+        int from = termTable.getInt(docTermOffsetsOffset + 4 * docId);
+        int to = termTable.getInt(docTermOffsetsOffset + 4 * (docId + 1));
+        Map<String, Integer> terms = new HashMap<>();
+        for (int t = from; t < to; t++) {
+            int ord = termTable.getInt(docTermsOffset + 8 * t);
+            terms.put(term(ord), termTable.getInt(docTermsOffset + 8 * t + 4));
+        }
+        return terms;
+    }
+
+    //Whether statistics come from the mapped sidecar rather than the index
+    public boolean isFromSidecar() {
+        return termTable != null;
+    }
+
+    //Binary search of the sorted term table, -1 for terms not in the field
+    private int ordinal(String term) {
+        byte[] key = term.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = numTerms - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareTerm(mid, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private String term(int ord) {
+        int start = termTable.getInt(termOffsetsOffset + 4 * ord);
+        int end = termTable.getInt(termOffsetsOffset + 4 * (ord + 1));
+        byte[] bytes = new byte[end - start];
+        termTable.get(termBytesOffset + start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    //Unsigned byte order, same as BytesRef
+    private int compareTerm(int ord, byte[] key) {
+        int start = termTable.getInt(termOffsetsOffset + 4 * ord);
+        int end = termTable.getInt(termOffsetsOffset + 4 * (ord + 1));
+        int length = end - start;
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int a = termTable.get(termBytesOffset + start + i) & 0xFF;
+            int b = key[i] & 0xFF;
+            if (a != b) return a - b;
+        }
+        return length - key.length;
+    }
+}
@@ -0,0 +1,160 @@
+package com.itchsearch.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//Admission control for searches that miss the result cache. At most limit searches run at once, a request
+//over the limit fails fast instead of queueing behind Tomcat's pool. The limit adapts to measured latency
+//(AIMD) of recent searches: while their smoothed latency is under the target every search adds 1/limit
+//(about +1 per round of searches) as long as the limit is in use, above it the limit is cut by the backoff
+//ratio, at most once per that latency. Single slow searches (a GC pause, a long posting list) do not cut it
+@Service
+public class ConcurrencyLimiter {
+
+    //Weight of the last search in the smoothed latency, about the last 10 searches count
+    private static final double SMOOTHING = 0.1;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Value("${itchsearch.limiter.enabled:true}")
+    private boolean enabled;
+
+    @Value("${itchsearch.limiter.initial-limit:16}")
+    private int initialLimit;
+
+    @Value("${itchsearch.limiter.min-limit:2}")
+    private int minLimit;
+
+    @Value("${itchsearch.limiter.max-limit:200}")
+    private int maxLimit;
+
+    //A smoothed search latency above this shrinks the limit
+    @Value("${itchsearch.limiter.latency-target-ms:150}")
+    private long latencyTargetMs;
+
+    @Value("${itchsearch.limiter.backoff-ratio:0.9}")
+    private double backoffRatio;
+
+    //Sent in Retry-After with rejections
+    @Value("${itchsearch.limiter.retry-after-seconds:1}")
+    private int retryAfterSeconds;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile double limit;
+    private long lastDecrease;
+    private double smoothedLatencyNanos;
+    private Counter accepted;
+    private Counter rejected;
+
+    @PostConstruct
+    public void init() {
+        limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        //nanoTime has an arbitrary origin (it may be negative): start as if the last decrease was one target ago,
+        //so the first slow search can cut the limit
+        lastDecrease = System.nanoTime() - latencyTargetMs * 1_000_000;
+        if (meterRegistry != null) {
+            Gauge.builder("itchsearch.limiter.limit", this, ConcurrencyLimiter::getLimit)
+                    .description("Concurrent uncached searches allowed").register(meterRegistry);
+            Gauge.builder("itchsearch.limiter.in-flight", inFlight, AtomicInteger::get)
+                    .description("Uncached searches running").register(meterRegistry);
+            accepted = Counter.builder("itchsearch.limiter.requests").tag("outcome", "accepted")
+                    .register(meterRegistry);
+            rejected = Counter.builder("itchsearch.limiter.requests").tag("outcome", "rejected")
+                    .register(meterRegistry);
+        }
+    }
+
+    //Permit for one search, release it when the search is done. Throws RejectedException over the limit
+    public Permit acquire() {
+        return acquire(true);
+    }
+
+    //Permit whose latency (admission to release) feeds the limit only when sampleLatency is set. A streamed
+    //search holds its permit while the client reads, so how fast the client is would count as search latency
+    public Permit acquire(boolean sampleLatency) {
+        if (!enabled) {
+            return new Permit(false, false);
+        }
+
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                if (rejected != null) rejected.increment();
+                throw new RejectedException(retryAfterSeconds);
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                if (accepted != null) accepted.increment();
+                return new Permit(true, sampleLatency);
+            }
+        }
+    }
+
+    public double getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    private synchronized void onComplete(long latencyNanos, int running) {
+        long now = System.nanoTime();
+        smoothedLatencyNanos += SMOOTHING * (latencyNanos - smoothedLatencyNanos);
+        if (smoothedLatencyNanos > latencyTargetMs * 1_000_000) {
+            if (now - lastDecrease > smoothedLatencyNanos) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                lastDecrease = now;
+            }
+        } else if (running * 2 >= limit) {
+            //Only grow a limit that is actually used, an idle server says nothing about capacity
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+    }
+
+    //One admitted search, measures its latency from admission to release
+    public class Permit {
+        private final boolean counted;
+        private final boolean sampled;
+        private final long start = System.nanoTime();
+        //Release may be called from more than one thread (a stream's body and its async completion)
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(boolean counted, boolean sampled) {
+            this.counted = counted;
+            this.sampled = sampled;
+        }
+
+        //Gives the permit back, only the first call counts
+        public void release() {
+            if (!counted || !released.compareAndSet(false, true)) return;
+            int running = inFlight.getAndDecrement();
+            if (sampled) onComplete(System.nanoTime() - start, running);
+        }
+    }
+
+    //Search refused because the limit is reached, the client should retry after retryAfterSeconds.
+    //Thrown for every shed request under overload, so it has no stack trace
+    public static class RejectedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final int retryAfterSeconds;
+
+        public RejectedException(int retryAfterSeconds) {
+            super("Too many searches in progress, retry in " + retryAfterSeconds + " s", null, false, false);
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        public int getRetryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.itchsearch.service;
+
+import java.io.IOException;
+
+//Query likelihood with Dirichlet smoothing: p(t|D) = (tf + mu * p(t|C)) / (|D| + mu)
+public class DirichletModel implements RankingModel {
+
+    @Override
+    public String getName() {
+        return DIRICHLET;
+    }
+
+    @Override
+    public double termWeight(CollectionStats stats, String term) throws IOException {
+        return collectionProbability(stats, term);
+    }
+
+    @Override
+    public double fieldScore(int tf, int docLength, double collectionProb, CollectionStats stats, double mu) {
+        return (tf + mu * collectionProb) / (docLength + mu);
+    }
+
+    @Override
+    public double termScore(double probTermInDoc) {
+        //Use log probability to avoid underflow
+        return probTermInDoc > 0 ? Math.log(probTermInDoc) : 0.0;
+    }
+
+    //Share of the collection taken by the term, shared by the language model family
+    static double collectionProbability(CollectionStats stats, String term) throws IOException {
+        return stats.getCollectionLength() == 0 ? 0.0
+                : (double) stats.collectionFreq(term) / stats.getCollectionLength();
+    }
+}
@@ -0,0 +1,193 @@
+package com.itchsearch.service;
+
+import com.itchsearch.model.GameDocument;
+import com.itchsearch.util.LuceneDocumentBuilder;
+import com.itchsearch.util.RandomIndexVectorizer;
+import com.itchsearch.util.ShardRouter;
+import com.itchsearch.util.TextPreprocessor;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+//Adds, replaces and deletes games through the IndexWriter of the shard their DOCNO belongs to. Documents
+//are analyzed exactly as IndexBuilderMain does (LuceneDocumentBuilder) and keyed by DOCNO, so posting a
+//docno again replaces the game. Changes are searchable after the next refresh and durable after the next commit
+@Service
+public class DocumentIngestService {
+
+    //Groups of ingested games that match no indexed URL, kept apart from the builder's small group numbers
+    private static final long NEW_GROUP_BIT = 1L << 62;
+
+    @Autowired
+    private IndexManager indexManager;
+
+    @Autowired
+    private TextPreprocessor preprocessor;
+
+    @Value("${itchsearch.ingest.max-batch:1000}")
+    private int maxBatch;
+
+    //Index or replace the games, returns how many were written. IllegalArgumentException for a bad batch
+    public int index(List<GameDocument> documents) throws IOException {
+        checkBatch(documents.size());
+        List<IndexWriter> writers = new ArrayList<>();
+        for (GameDocument doc : documents) {
+            if (doc == null || doc.getDocno().isBlank()) {
+                throw new IllegalArgumentException("Every document needs a docno");
+            }
+            writers.add(writer(doc.getDocno()));
+        }
+
+        List<IndexShard> shards = indexManager.getShards();
+        List<DirectoryReader> readers = new ArrayList<>();
+        try {
+            List<IndexSearcher> searchers = new ArrayList<>();
+            for (IndexShard shard : shards) {
+                readers.add(shard.acquire());
+                searchers.add(new IndexSearcher(readers.get(readers.size() - 1)));
+            }
+            //Index the same way as the existing segments, a field's index options must not differ
+            LuceneDocumentBuilder builder = new LuceneDocumentBuilder(preprocessor, hasPositions(readers.get(0)));
+            RandomIndexVectorizer vectorizer = vectorizer(readers);
+            Map<String, Long> batchGroups = new HashMap<>();
+            for (int i = 0; i < documents.size(); i++) {
+                GameDocument doc = documents.get(i);
+                long group = duplicateGroup(searchers, doc, batchGroups);
+                writers.get(i).updateDocument(new Term("DOCNO", doc.getDocno()),
+                        builder.build(doc, group, vectorizer));
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            for (int s = 0; s < readers.size(); s++) {
+                shards.get(s).release(readers.get(s));
+            }
+        }
+        return documents.size();
+    }
+
+    //Delete games by docno, returns how many docnos were requested (unknown ones are ignored)
+    public int delete(List<String> docnos) throws IOException {
+        checkBatch(docnos.size());
+        Map<IndexWriter, List<Term>> terms = new HashMap<>();
+        for (String docno : docnos) {
+            if (docno == null || docno.isBlank()) {
+                throw new IllegalArgumentException("Empty docno");
+            }
+            terms.computeIfAbsent(writer(docno), writer -> new ArrayList<>()).add(new Term("DOCNO", docno));
+        }
+        for (Map.Entry<IndexWriter, List<Term>> entry : terms.entrySet()) {
+            entry.getKey().deleteDocuments(entry.getValue().toArray(new Term[0]));
+        }
+        return docnos.size();
+    }
+
+    //Writer of the shard the docno belongs to. IllegalArgumentException when this instance does not serve it
+    private IndexWriter writer(String docno) throws IOException {
+        IndexShard shard = indexManager.shardFor(docno);
+        if (shard == null) {
+            throw new IllegalArgumentException("Docno " + docno + " belongs to shard "
+                    + ShardRouter.shardOf(docno, indexManager.getShardCount()) + ", not served here");
+        }
+        if (shard.getWriter() == null) {
+            throw new IOException("Ingest is disabled, start with --itchsearch.ingest.enabled=true");
+        }
+        return shard.getWriter();
+    }
+
+    private void checkBatch(int size) {
+        if (size == 0) {
+            throw new IllegalArgumentException("Empty batch");
+        }
+        if (size > maxBatch) {
+            throw new IllegalArgumentException("Batch of " + size + " exceeds itchsearch.ingest.max-batch="
+                    + maxBatch);
+        }
+    }
+
+    private static boolean hasPositions(DirectoryReader reader) {
+        FieldInfo content = FieldInfos.getMergedFieldInfos(reader).fieldInfo("CONTENT");
+        return content != null
+                && content.getIndexOptions().compareTo(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS) >= 0;
+    }
+
+    //Vectors like the indexed ones (same dimensions, idf over all shards) when the index was built with
+    //--vectors, else null
+    private static RandomIndexVectorizer vectorizer(List<DirectoryReader> readers) {
+        FieldInfo field = FieldInfos.getMergedFieldInfos(readers.get(0)).fieldInfo(RandomIndexVectorizer.FIELD);
+        if (field == null || field.getVectorDimension() == 0) {
+            return null;
+        }
+        int docCount = 0;
+        for (DirectoryReader reader : readers) {
+            docCount += reader.numDocs();
+        }
+        return new RandomIndexVectorizer(field.getVectorDimension(), term -> {
+            int docFreq = 0;
+            try {
+                for (DirectoryReader reader : readers) {
+                    docFreq += reader.docFreq(new Term("CONTENT", term));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return docFreq;
+        }, docCount);
+    }
+
+    //Exact duplicates only: the group of an indexed game (or an earlier one in the batch) with the same URL,
+    //in any shard, else a group of its own derived from the docno. Near-duplicate detection stays with
+    //IndexBuilderMain
+    private static long duplicateGroup(List<IndexSearcher> searchers, GameDocument doc,
+                                       Map<String, Long> batchGroups) throws IOException {
+        if (doc.getUrl().isEmpty()) {
+            return ownGroup(doc.getDocno());
+        }
+        Long batchGroup = batchGroups.get(doc.getUrl());
+        if (batchGroup != null) {
+            return batchGroup;
+        }
+
+        long group = ownGroup(doc.getDocno());
+        for (IndexSearcher searcher : searchers) {
+            TopDocs hits = searcher.search(new TermQuery(new Term("URL", doc.getUrl())), 1);
+            if (hits.scoreDocs.length == 0) continue;
+            int docId = hits.scoreDocs[0].doc;
+            List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+            LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docId, leaves));
+            NumericDocValues groups = leaf.reader().getNumericDocValues("DUP_GROUP");
+            if (groups != null && groups.advanceExact(docId - leaf.docBase)) {
+                group = groups.longValue();
+                break;
+            }
+        }
+        batchGroups.put(doc.getUrl(), group);
+        return group;
+    }
+
+    private static long ownGroup(String docno) {
+        UUID uuid = UUID.nameUUIDFromBytes(docno.getBytes(StandardCharsets.UTF_8));
+        return NEW_GROUP_BIT | (uuid.getMostSignificantBits() & (NEW_GROUP_BIT - 1));
+    }
+}
@@ -0,0 +1,91 @@
+package com.itchsearch.service;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.SortedSetDocValues;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+//Counts SortedSetDocValues facet values of the documents the scorer matches.
+//Counting is by segment ordinal inside the scoring loop, labels are resolved once per segment.
+public class FacetCounter {
+
+    private final String[] dims;
+    private final String[] fields;
+    private final Map<String, Map<String, Integer>> counts = new HashMap<>();
+
+    private SortedSetDocValues[] values;
+    private int[][] ordCounts;
+
+    //Dimension name to the SortedSetDocValues field it is counted from
+    public FacetCounter(Map<String, String> dimFields) {
+        Map<String, String> sorted = new TreeMap<>(dimFields);
+        this.dims = sorted.keySet().toArray(new String[0]);
+        this.fields = sorted.values().toArray(new String[0]);
+        for (String dim : dims) {
+            counts.put(dim, new HashMap<>());
+        }
+    }
+
+    //Switch to a new segment, flushing counts of the previous one
+    public void setLeaf(LeafReader leafReader) throws IOException {
+        finishLeaf();
+        values = new SortedSetDocValues[dims.length];
+        ordCounts = new int[dims.length][];
+        for (int d = 0; d < dims.length; d++) {
+            values[d] = DocValues.getSortedSet(leafReader, fields[d]);
+            ordCounts[d] = new int[(int) values[d].getValueCount()];
+        }
+    }
+
+    //Count every facet value of a matching document, doc ids must be increasing within a segment
+    public void collect(int doc) throws IOException {
+        for (int d = 0; d < dims.length; d++) {
+            SortedSetDocValues dv = values[d];
+            if (!dv.advanceExact(doc)) continue;
+            for (int i = 0; i < dv.docValueCount(); i++) {
+                ordCounts[d][(int) dv.nextOrd()]++;
+            }
+        }
+    }
+
+    //Top values per dimension by count, ties by label
+    public Map<String, Map<String, Integer>> top(int maxValues) throws IOException {
+        finishLeaf();
+        Map<String, Map<String, Integer>> sorted = new TreeMap<>(counts);
+        return top(sorted, maxValues);
+    }
+
+    //Top values per dimension of counts made elsewhere, e.g. added up over shards
+    public static Map<String, Map<String, Integer>> top(Map<String, Map<String, Integer>> counts, int maxValues) {
+        Map<String, Map<String, Integer>> result = new LinkedHashMap<>();
+        for (String dim : counts.keySet()) {
+            Map<String, Integer> top = new LinkedHashMap<>();
+            counts.get(dim).entrySet().stream()
+                    .sorted(Map.Entry.<String, Integer>comparingByValue().reversed()
+                            .thenComparing(Map.Entry.comparingByKey()))
+                    .limit(maxValues)
+                    .forEach(e -> top.put(e.getKey(), e.getValue()));
+            result.put(dim, top);
+        }
+        return result;
+    }
+
+    private void finishLeaf() throws IOException {
+        if (values == null) return;
+        for (int d = 0; d < dims.length; d++) {
+            Map<String, Integer> dimCounts = counts.get(dims[d]);
+            for (int ord = 0; ord < ordCounts[d].length; ord++) {
+                if (ordCounts[d][ord] > 0) {
+                    dimCounts.merge(values[d].lookupOrd(ord).utf8ToString(), ordCounts[d][ord], Integer::sum);
+                }
+            }
+        }
+        values = null;
+        ordCounts = null;
+    }
+}
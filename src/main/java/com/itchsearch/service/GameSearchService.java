@@ -1,269 +1,996 @@
 package com.itchsearch.service;
 
+import com.itchsearch.util.RandomIndexVectorizer;
 import com.itchsearch.util.Stemmer;
 import com.itchsearch.model.Game;
-
+import com.itchsearch.model.SearchOptions;
+import com.itchsearch.model.SearchResult;
+import com.itchsearch.model.ShardResult;
+import com.itchsearch.model.ShardSearchRequest;
+import com.itchsearch.model.ShardStats;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.LongPoint;
 import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.FloatVectorValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.Weight;
 import org.apache.lucene.util.BytesRef;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.*;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.nio.charset.StandardCharsets;
 
 
-//Search service using bag of words model with Dirichlet smoothing
+//Search service using bag of words model with Dirichlet smoothing, optionally mixed with a stemmed title model
 @Service
 public class GameSearchService {
 
-    private Map<Integer, Integer> docLengthCache = new HashMap<>();
-    private Map<String, Long> collectionFreqCache = new HashMap<>();
+    //Facet doc values field per response key
+    private static final Map<String, String> FACET_FIELDS = Map.of("author", "AUTHOR_FACET", "platform", "PLATFORM");
+    private static final Pattern QUOTED_PHRASE = Pattern.compile("\"([^\"]+)\"");
 
-    private static final String INDEX_DIR = "data/index";
-    private static final double MU = 2000.0;
+    @Autowired
+    private IndexManager indexManager;
 
-    // ========== QUERY PROCESSING ========== //
-    public List<Game> searchGames(String queryStr, int maxResults) {
-        List<Game> results = new ArrayList<>();
-        Path indexPath = Paths.get(System.getProperty("user.dir")).resolve(INDEX_DIR);
+    @Autowired
+    private RemoteShardClient remoteShards;
 
-        //Clear cache to ensure fresh data from index
-        docLengthCache.clear();
-        collectionFreqCache.clear();
+    @Autowired
+    private StoredDocumentCache documentCache;
 
-        try (FSDirectory dir = FSDirectory.open(indexPath);
-             DirectoryReader reader = DirectoryReader.open(dir)) {
+    @Autowired
+    private RelevanceFeedback relevanceFeedback;
 
-            //Preprocess query using Porter Stemmer
-            String[] queryTerms = preprocessQuery(queryStr);
-            if (queryTerms.length == 0) {
-                return results;
-            }
+    @Value("${itchsearch.search.snippet-length:300}")
+    private int snippetLength;
 
-            //Use a set of query stems for highlighting
-            Set<String> queryStemSet = new HashSet<>(Arrays.asList(queryTerms));
+    @Value("${itchsearch.search.max-facet-values:10}")
+    private int maxFacetValues;
 
-            //Calculate collection statistics from actual index
-            long collectionLength = calculateCollectionLength(reader);
+    //Ranking model used when the request does not pick one, see RankingModel.NAMES
+    @Value("${itchsearch.search.ranking-model:dirichlet}")
+    private String defaultRankingModel;
 
-            //Score all documents
-            Map<Integer, Double> docScores = new HashMap<>();
-            IndexSearcher searcher = new IndexSearcher(reader);
+    //Dirichlet prior of CONTENT
+    @Value("${itchsearch.search.mu:2000}")
+    private double mu;
 
-            for (int docId = 0; docId < reader.maxDoc(); docId++) {
-                double score = scoreDocument(reader, docId, queryTerms, collectionLength);
-                if (score > Double.NEGATIVE_INFINITY) {
-                    docScores.put(docId, score);
-                }
-            }
+    @Value("${itchsearch.search.jm-lambda:0.5}")
+    private double jmLambda;
+
+    @Value("${itchsearch.search.two-stage-lambda:0.1}")
+    private double twoStageLambda;
+
+    @Value("${itchsearch.search.bm25-k1:1.2}")
+    private double bm25K1;
+
+    @Value("${itchsearch.search.bm25-b:0.75}")
+    private double bm25B;
+
+    @Value("${itchsearch.search.title-weight:0.2}")
+    private double titleWeight;
+
+    @Value("${itchsearch.search.title-mu:10}")
+    private double titleMu;
+
+    @Value("${itchsearch.search.phrase-weight:0.3}")
+    private double phraseWeight;
+
+    @Value("${itchsearch.search.proximity-weight:0.1}")
+    private double proximityWeight;
+
+    @Value("${itchsearch.search.proximity-window:8}")
+    private int proximityWindow;
+
+    //MaxScore dynamic pruning for relevance order, same top k as exhaustive scoring
+    @Value("${itchsearch.search.pruning:true}")
+    private boolean pruning;
+
+    //Threads scoring the shards of a sharded index in parallel
+    @Value("${itchsearch.shards.threads:4}")
+    private int shardThreads;
+
+    //Stems of the game's own description searched lexically by similarGames with fusion
+    @Value("${itchsearch.similar.fusion-terms:10}")
+    private int fusionTerms;
+
+    //Rank constant of reciprocal rank fusion, higher flattens the difference between top and lower ranks
+    @Value("${itchsearch.similar.rrf-k:60}")
+    private int rrfK;
+
+    private ExecutorService shardExecutor;
+
+    @PostConstruct
+    public void init() {
+        shardExecutor = Executors.newFixedThreadPool(Math.max(1, shardThreads), runnable -> {
+            Thread thread = new Thread(runnable, "shard-search");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void close() {
+        shardExecutor.shutdownNow();
+    }
+
+    // ========== QUERY PROCESSING ========== //
+    public List<Game> searchGames(String queryStr, int maxResults) {
+        return searchGames(queryStr, maxResults, new SearchOptions());
+    }
+
+    //Search with projection, filters and sort order from the options
+    public List<Game> searchGames(String queryStr, int maxResults, SearchOptions options) {
+        return search(queryStr, maxResults, options).getResults();
+    }
+
+    //Search returning hits plus facet counts when options ask for them
+    public SearchResult search(String queryStr, int maxResults, SearchOptions options) {
+        SearchResult result = new SearchResult();
+        execute(queryStr, maxResults, options, result.getResults()::add, result);
+        return result;
+    }
 
-            //Sort by score and get top N
-            List<Map.Entry<Integer, Double>> sortedDocs = new ArrayList<>(docScores.entrySet());
-            sortedDocs.sort((e1, e2) -> Double.compare(e2.getValue(), e1.getValue()));
+    //Score the query and hand each top hit to the consumer as soon as it is hydrated,
+    //so callers can write results out without holding the whole page in memory.
+    //Returns true when the time budget ran out and the hits are the best found before that
+    public boolean streamGames(String queryStr, int maxResults, SearchOptions options, Consumer<Game> consumer) {
+        SearchResult result = new SearchResult();
+        execute(queryStr, maxResults, options, consumer, result);
+        return result.isPartial();
+    }
 
-            int limit = Math.min(maxResults, sortedDocs.size());
-            for (int i = 0; i < limit; i++) {
-                int docId = sortedDocs.get(i).getKey();
-                Document doc = searcher.doc(docId);
+    //Run the query, facet counts of the matching set (if requested) and the partial flag go into result.
+    //The time budget covers scoring and hydration: past it the scorer returns its best documents so far,
+    //and the remaining hits are sent without highlighting.
+    //Shards are scored in parallel with global statistics and only the merged top hits are hydrated,
+    //with remote shard nodes configured they are searched over HTTP instead
+    private void execute(String queryStr, int maxResults, SearchOptions options, Consumer<Game> consumer,
+                         SearchResult result) {
+        long deadline = options.getTimeoutMs() > 0
+                ? System.nanoTime() + options.getTimeoutMs() * 1_000_000
+                : PostingsScorer.NO_DEADLINE;
+
+        //Preprocess query using Porter Stemmer, quoted parts become phrases
+        ParsedQuery query = parseQuery(queryStr);
+        if (query.isEmpty()) {
+            return;
+        }
 
-                Game game = new Game();
-                game.setTitle(doc.get("TITLE"));
-                game.setAuthor(doc.get("AUTHOR"));
-                game.setPrice(doc.get("PRICE"));
-                game.setUrl(doc.get("URL"));
+        if (remoteShards.isEnabled()) {
+            ShardResult merged = searchRemote(queryStr, query, maxResults, options, deadline, result);
+            for (ShardResult.Hit hit : merged.getHits()) {
+                consumer.accept(hit.getGame());
+            }
+            result.setPartial(merged.isPartial());
+            if (merged.getFacets() != null) {
+                result.setFacets(FacetCounter.top(merged.getFacets(), maxFacetValues));
+            }
+            return;
+        }
 
-                String originalDescription = doc.get("CONTENT_ORIGINAL");
-                game.setFullDescription(originalDescription);
+        List<IndexShard> shards = null;
+        DirectoryReader[] readers = null;
+        try {
+            //Current readers, kept open by their shards until released even if a refresh replaces them
+            shards = indexManager.getShards();
+            readers = acquire(shards);
 
-                //Generate highlighted description using backend stems
-                String highlighted = highlightDescriptionWithStems(originalDescription, queryStemSet);
-                game.setHighlightedDescription(highlighted);
+            if (options.isFeedback()) {
+                query = expand(query, options, shards, readers, deadline);
+                if (!query.getExpansion().isEmpty()) result.setExpansion(query.getExpansion());
+            }
+            ShardResult merged = scoreShards(query, maxResults, options, shards, readers, null, deadline);
+            boolean lateHydration = hydrate(merged, shards, readers, query, options, deadline,
+                    hit -> consumer.accept(hit.getGame()));
 
-                results.add(game);
+            result.setPartial(merged.isPartial() || lateHydration);
+            if (merged.getFacets() != null) {
+                result.setFacets(FacetCounter.top(merged.getFacets(), maxFacetValues));
             }
         //====================================== //
 
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            release(shards, readers);
         }
+    }
 
-        return results;
+    // ========== SIMILAR GAMES ========== //
+    //Games closest to the game docno by the dot product of their vectors (cosine, see RandomIndexVectorizer),
+    //found with each shard's HNSW graph. With fusion the neighbours are fused by reciprocal rank with a
+    //lexical search for the game's top tf-idf stems, which catches games sharing rare words that random
+    //indexing blurs. The game itself, and with collapse its near-duplicates, are left out.
+    //Null when docno is not indexed, IOException when the index has no vectors
+    public SearchResult similarGames(String docno, int k, SearchOptions options, boolean fusion) throws IOException {
+        long deadline = options.getTimeoutMs() > 0
+                ? System.nanoTime() + options.getTimeoutMs() * 1_000_000
+                : PostingsScorer.NO_DEADLINE;
+        List<IndexShard> shards = indexManager.getShards();
+        DirectoryReader[] readers = acquire(shards);
+        try {
+            boolean vectors = false;
+            for (DirectoryReader reader : readers) {
+                vectors |= FieldInfos.getMergedFieldInfos(reader).fieldInfo(RandomIndexVectorizer.FIELD) != null;
+            }
+            if (!vectors) {
+                throw new IOException("Index has no game vectors, rebuild with IndexBuilderMain --vectors");
+            }
+
+            //Locate the game in the shard its DOCNO hashes to
+            IndexShard home = indexManager.shardFor(docno);
+            int source = home != null ? shards.indexOf(home) : -1;
+            TopDocs found = source >= 0
+                    ? new IndexSearcher(readers[source]).search(new TermQuery(new Term("DOCNO", docno)), 1)
+                    : null;
+            if (found == null || found.scoreDocs.length == 0) {
+                return null;
+            }
+            int sourceDoc = found.scoreDocs[0].doc;
+            int sourceShard = shards.get(source).getId();
+            long sourceGroup = dupGroup(readers[source], sourceShard, sourceDoc);
+
+            //Candidates per list, enough to fill k after dropping the game and collapsing duplicates
+            int candidates = 2 * k + 10;
+            SearchResult result = new SearchResult();
+            float[] vector = vectorOf(readers[source], sourceDoc);
+            if (vector == null) {
+                //Ingested without content
+                return result;
+            }
+            List<ShardResult.Hit> ranked = nearestNeighbours(vector, candidates, shards, readers);
+            if (fusion) {
+                ParsedQuery lexical = topTerms(readers, readers[source], sourceDoc);
+                if (!lexical.isEmpty()) {
+                    SearchOptions lexicalOptions = new SearchOptions();
+                    lexicalOptions.setCollapse(false);
+                    ShardResult lexicalHits = scoreShards(lexical, candidates, lexicalOptions, shards, readers,
+                            null, deadline);
+                    ranked = fuse(List.of(ranked, lexicalHits.getHits()), sourceShard, sourceDoc);
+                    result.setPartial(lexicalHits.isPartial());
+                }
+            }
+
+            //Best k, without the game and (collapsed) its group
+            Map<Integer, DirectoryReader> readerById = new HashMap<>();
+            for (int s = 0; s < shards.size(); s++) {
+                readerById.put(shards.get(s).getId(), readers[s]);
+            }
+            ShardResult merged = new ShardResult();
+            Set<Long> groups = new HashSet<>();
+            if (options.isCollapse()) groups.add(sourceGroup);
+            for (ShardResult.Hit hit : ranked) {
+                if (merged.getHits().size() >= k) break;
+                if (hit.getShard() == sourceShard && hit.getDocId() == sourceDoc) continue;
+                if (options.isCollapse()
+                        && !groups.add(dupGroup(readerById.get(hit.getShard()), hit.getShard(), hit.getDocId()))) {
+                    continue;
+                }
+                merged.getHits().add(hit);
+            }
+            if (hydrate(merged, shards, readers, new ParsedQuery(new String[0], List.of()), options, deadline,
+                    hit -> result.getResults().add(hit.getGame()))) {
+                result.setPartial(true);
+            }
+            return result;
+        } finally {
+            release(shards, readers);
+        }
     }
 
+    //Approximate nearest neighbours of the vector over every segment of every shard, best first.
+    //Scores are turned back from Lucene's (1 + dot) / 2 into the cosine
+    private static List<ShardResult.Hit> nearestNeighbours(float[] vector, int n, List<IndexShard> shards,
+                                                           DirectoryReader[] readers) throws IOException {
+        List<ShardResult.Hit> hits = new ArrayList<>();
+        for (int s = 0; s < readers.length; s++) {
+            for (LeafReaderContext leaf : readers[s].leaves()) {
+                LeafReader leafReader = leaf.reader();
+                if (leafReader.getFieldInfos().fieldInfo(RandomIndexVectorizer.FIELD) == null) continue;
+                TopDocs nearest = leafReader.searchNearestVectors(RandomIndexVectorizer.FIELD, vector, n,
+                        leafReader.getLiveDocs(), Integer.MAX_VALUE);
+                for (ScoreDoc scoreDoc : nearest.scoreDocs) {
+                    ShardResult.Hit hit = new ShardResult.Hit();
+                    hit.setShard(shards.get(s).getId());
+                    hit.setDocId(leaf.docBase + scoreDoc.doc);
+                    hit.setScore(2.0 * scoreDoc.score - 1);
+                    hits.add(hit);
+                }
+            }
+        }
+        hits.sort(Comparator.comparingDouble(ShardResult.Hit::getScore).reversed()
+                .thenComparingInt(ShardResult.Hit::getShard).thenComparingInt(ShardResult.Hit::getDocId));
+        return hits.size() > n ? new ArrayList<>(hits.subList(0, n)) : hits;
+    }
 
-    //Preprocess query using Porter Stemmer same as assignment
-    private String[] preprocessQuery(String query) {
-        if (query == null || query.trim().isEmpty()) {
-            return new String[0];
+    //Reciprocal rank fusion: a hit scores the sum of 1 / (rrfK + rank) over the lists it is in, ranks counted
+    //without the source game
+    private List<ShardResult.Hit> fuse(List<List<ShardResult.Hit>> lists, int sourceShard, int sourceDoc) {
+        Map<Long, ShardResult.Hit> fused = new LinkedHashMap<>();
+        for (List<ShardResult.Hit> list : lists) {
+            int rank = 0;
+            for (ShardResult.Hit hit : list) {
+                if (hit.getShard() == sourceShard && hit.getDocId() == sourceDoc) continue;
+                rank++;
+                double score = 1.0 / (rrfK + rank);
+                ShardResult.Hit previous = fused.putIfAbsent(((long) hit.getShard() << 32) | hit.getDocId(), hit);
+                if (previous == null) {
+                    hit.setScore(score);
+                } else {
+                    previous.setScore(previous.getScore() + score);
+                }
+            }
         }
+        List<ShardResult.Hit> ranked = new ArrayList<>(fused.values());
+        ranked.sort(Comparator.comparingDouble(ShardResult.Hit::getScore).reversed()
+                .thenComparingInt(ShardResult.Hit::getShard).thenComparingInt(ShardResult.Hit::getDocId));
+        return ranked;
+    }
 
-        //Tokenize by splitting on non-alphanumeric characters
-        String[] tokens = query.toLowerCase().split("[^a-zA-Z0-9]+");
-        List<String> processedTokens = new ArrayList<>();
+    //Query of the game's fusionTerms CONTENT stems with the highest (1 + ln tf) * idf, read from its term vector
+    //with document frequencies summed over the shards
+    private ParsedQuery topTerms(DirectoryReader[] readers, DirectoryReader reader, int docId) throws IOException {
+        Terms terms = reader.termVectors().get(docId, "CONTENT");
+        if (terms == null) {
+            return new ParsedQuery(new String[0], List.of());
+        }
+        int docCount = 0;
+        for (DirectoryReader shardReader : readers) {
+            docCount += shardReader.numDocs();
+        }
 
-        //Load stopwords
-        Set<String> stopwords = loadStopwords();
+        //Min-heap of the best stems so far
+        PriorityQueue<Map.Entry<String, Double>> best = new PriorityQueue<>(Map.Entry.comparingByValue());
+        TermsEnum termsEnum = terms.iterator();
+        BytesRef term;
+        while ((term = termsEnum.next()) != null) {
+            Term shardTerm = new Term("CONTENT", BytesRef.deepCopyOf(term));
+            int df = 0;
+            for (DirectoryReader shardReader : readers) {
+                df += shardReader.docFreq(shardTerm);
+            }
+            double idf = Math.log(1 + (double) docCount / Math.max(1, df));
+            double weight = (1 + Math.log(termsEnum.totalTermFreq())) * idf;
+            best.add(Map.entry(term.utf8ToString(), weight));
+            if (best.size() > fusionTerms) best.poll();
+        }
+        String[] stems = new String[best.size()];
+        for (int i = stems.length - 1; i >= 0; i--) {
+            stems[i] = best.poll().getKey();
+        }
+        return new ParsedQuery(stems, List.of());
+    }
 
-        for (String token : tokens) {
-            if (token.isEmpty()) continue;
+    //Copy of a document's vector, null when it has none
+    private static float[] vectorOf(DirectoryReader reader, int docId) throws IOException {
+        List<LeafReaderContext> leaves = reader.leaves();
+        LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docId, leaves));
+        FloatVectorValues values = leaf.reader().getFloatVectorValues(RandomIndexVectorizer.FIELD);
+        int leafDoc = docId - leaf.docBase;
+        if (values == null || values.advance(leafDoc) != leafDoc) {
+            return null;
+        }
+        return values.vectorValue().clone();
+    }
 
-            //Skip stopwords
-            if (stopwords.contains(token)) continue;
+    // ========== SHARDS ========== //
+    //Collection statistics of the query and of the expansion stems (may be empty) over this instance's shards,
+    //for a coordinator to sum with other nodes'
+    public ShardStats shardStats(String queryStr, List<String> expansion) throws IOException {
+        ParsedQuery parsed = parseQuery(queryStr);
+        Map<String, Double> stems = new LinkedHashMap<>();
+        for (String stem : expansion) {
+            stems.put(stem, 0.0);
+        }
+        ParsedQuery query = new ParsedQuery(parsed.getTerms(), parsed.getPhrases(), stems, parsed.getTermWeight());
+        List<IndexShard> shards = indexManager.getShards();
+        DirectoryReader[] readers = acquire(shards);
+        try {
+            return collectStats(query, shards, readers);
+        } finally {
+            release(shards, readers);
+        }
+    }
 
-            //Apply Porter Stemmer
-            Stemmer stemmer = new Stemmer();
-            char[] chars = token.toCharArray();
-            stemmer.add(chars, chars.length);
-            stemmer.stem();
-            String stemmedToken = stemmer.toString();
+    //This instance's part of a search coordinated over HTTP: its shards scored with the coordinator's global
+    //statistics, merged and hydrated, with facet counts not cut to the top values. Feedback is the
+    //coordinator's: the query is expanded only with the request's expansion, and a first pass asking for
+    //feedbackTerms gets each hit's terms and length instead of its game
+    public ShardResult searchShards(ShardSearchRequest request) throws IOException {
+        SearchOptions options = request.getOptions() != null ? request.getOptions() : new SearchOptions();
+        long deadline = request.getTimeoutMs() > 0
+                ? System.nanoTime() + request.getTimeoutMs() * 1_000_000
+                : PostingsScorer.NO_DEADLINE;
+        ParsedQuery query = parseQuery(request.getQuery());
+        if (query.isEmpty()) {
+            return new ShardResult();
+        }
+        if (request.getExpansion() != null && !request.getExpansion().isEmpty()) {
+            query = new ParsedQuery(query.getTerms(), query.getPhrases(), request.getExpansion(),
+                    request.getTermWeight());
+        }
 
-            if (!stemmedToken.isEmpty()) {
-                processedTokens.add(stemmedToken);
+        List<IndexShard> shards = indexManager.getShards();
+        DirectoryReader[] readers = acquire(shards);
+        try {
+            ShardResult merged = scoreShards(query, request.getMaxResults(), options, shards, readers,
+                    request.getStats(), deadline);
+            if (request.isFeedbackTerms()) {
+                for (ShardResult.Hit hit : merged.getHits()) {
+                    for (int s = 0; s < shards.size(); s++) {
+                        if (shards.get(s).getId() != hit.getShard()) continue;
+                        CollectionStats stats = shards.get(s).getStats(readers[s], "CONTENT");
+                        hit.setTerms(RelevanceFeedback.docTerms(readers[s], stats, hit.getDocId()));
+                        hit.setLength(stats.docLength(hit.getDocId()));
+                    }
+                }
+                return merged;
             }
+            if (hydrate(merged, shards, readers, query, options, deadline, hit -> {})) {
+                merged.setPartial(true);
+            }
+            return merged;
+        } finally {
+            release(shards, readers);
         }
+    }
 
-        return processedTokens.toArray(new String[0]);
+    //Query expanded by RM3 from the top documents of a first pass over the same shards (relevance order,
+    //no filters, near-duplicates collapsed so a game listed many times does not dominate), cached per stemmed
+    //query and reader version. A first pass cut short by the deadline is used but not cached
+    private ParsedQuery expand(ParsedQuery query, SearchOptions options, List<IndexShard> shards,
+                               DirectoryReader[] readers, long deadline) throws IOException {
+        long version = 0;
+        for (DirectoryReader reader : readers) {
+            version += reader.getVersion();
+        }
+        List<Object> key = relevanceFeedback.key(query, options.getRankingModel(), version);
+        ParsedQuery expanded = relevanceFeedback.get(key);
+        if (expanded != null) {
+            return expanded;
+        }
+
+        SearchOptions firstPass = new SearchOptions();
+        firstPass.setRankingModel(options.getRankingModel());
+        firstPass.setCollapse(true);
+        ShardResult top = scoreShards(query, relevanceFeedback.getFeedbackDocs(), firstPass, shards, readers,
+                null, deadline);
+        List<RelevanceFeedback.FeedbackDocument> documents = new ArrayList<>();
+        for (ShardResult.Hit hit : top.getHits()) {
+            for (int s = 0; s < shards.size(); s++) {
+                if (shards.get(s).getId() != hit.getShard()) continue;
+                CollectionStats stats = shards.get(s).getStats(readers[s], "CONTENT");
+                documents.add(new RelevanceFeedback.FeedbackDocument(
+                        RelevanceFeedback.docTerms(readers[s], stats, hit.getDocId()),
+                        stats.docLength(hit.getDocId()), hit.getScore()));
+            }
+        }
+        expanded = relevanceFeedback.expand(query, documents);
+        if (!top.isPartial()) {
+            relevanceFeedback.put(key, expanded);
+        }
+        return expanded;
     }
 
-    //Load stopwords from file
-    private Set<String> loadStopwords() {
-        Set<String> stopwords = new HashSet<>();
-        try (InputStream is = getClass().getClassLoader()
-                .getResourceAsStream("stopwords.txt");
-             BufferedReader reader = new BufferedReader(
-                     new InputStreamReader(is, StandardCharsets.UTF_8))) {
+    //Score the query on each shard, in parallel when there are several, and merge their top hits.
+    //Shards score with collection statistics summed over all shards (global, collected here when null)
+    private ShardResult scoreShards(ParsedQuery query, int k, SearchOptions options, List<IndexShard> shards,
+                                    DirectoryReader[] readers, ShardStats global, long deadline) throws IOException {
+        if (shards.size() == 1) {
+            return scoreShard(query, k, options, shards.get(0), readers[0], global, deadline);
+        }
 
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String word = line.trim().toLowerCase();
-                if (!word.isEmpty()) {
-                    stopwords.add(word);
-                }
+        ShardStats stats = global != null ? global : collectStats(query, shards, readers);
+        List<Future<ShardResult>> futures = new ArrayList<>();
+        for (int s = 0; s < shards.size(); s++) {
+            IndexShard shard = shards.get(s);
+            DirectoryReader reader = readers[s];
+            futures.add(shardExecutor.submit(() -> scoreShard(query, k, options, shard, reader, stats, deadline)));
+        }
+        List<ShardResult> results = new ArrayList<>();
+        for (Future<ShardResult> future : futures) {
+            results.add(join(future));
+        }
+        return merge(results, k, options);
+    }
+
+    //Top k hits of one shard, facet counts of its matching set (all values)
+    private ShardResult scoreShard(ParsedQuery query, int k, SearchOptions options, IndexShard shard,
+                                   DirectoryReader reader, ShardStats global, long deadline) throws IOException {
+        //Collection statistics, computed once per reader
+        CollectionStats stats = shard.getStats(reader, "CONTENT");
+        if (!query.getPhrases().isEmpty() && !stats.hasPositions()) {
+            shard.warnOnce("index has no positions, phrases scored as plain terms."
+                    + " Rebuild with IndexBuilderMain --positions");
+        }
+
+        IndexSearcher searcher = new IndexSearcher(reader);
+        Weight filter = buildFilter(searcher, shard, reader, options);
+        FacetCounter facets = options.isFacets() ? new FacetCounter(FACET_FIELDS) : null;
+
+        //Score documents containing any query term and keep the top N
+        PostingsScorer scorer = new PostingsScorer(reader, rankingModel(options.getRankingModel()),
+                scoringFields(shard, reader, global),
+                phraseWeight, proximityWeight, proximityWindow, pruning);
+        List<ScoredDoc> topDocs = scorer.topDocs(query, k, filter, options.getSort(), facets,
+                options.isCollapse(), deadline);
+
+        ShardResult result = new ShardResult();
+        result.setPartial(scorer.isPartial());
+        for (ScoredDoc scoredDoc : topDocs) {
+            ShardResult.Hit hit = new ShardResult.Hit();
+            hit.setShard(shard.getId());
+            hit.setDocId(scoredDoc.docId());
+            hit.setScore(scoredDoc.score());
+            hit.setSortValue(scoredDoc.sortValue());
+            if (options.isCollapse()) {
+                hit.setGroup(dupGroup(reader, shard.getId(), scoredDoc.docId()));
             }
-        } catch (Exception e) {
-            System.err.println("Error loading stopwords: " + e.getMessage());
+            result.getHits().add(hit);
         }
-        return stopwords;
+        if (facets != null) {
+            result.setFacets(facets.top(Integer.MAX_VALUE));
+        }
+        return result;
     }
 
-    //Score document using Query Likelihood Model with Dirichlet Prior Smoothing
-    // =============== RANKING =============== //
-    private double scoreDocument(DirectoryReader reader, int docId, String[] queryTerms, long collectionLength)
+    //Per scoring field, the shards' statistics of the query terms summed, phrase and proximity features
+    //(an extra positions pass per shard when the query has any) with the primary field
+    private ShardStats collectStats(ParsedQuery query, List<IndexShard> shards, DirectoryReader[] readers)
             throws IOException {
+        Set<String> terms = new LinkedHashSet<>(Arrays.asList(query.getTerms()));
+        terms.addAll(query.getExpansion().keySet());
+        ShardStats stats = new ShardStats();
+        for (int s = 0; s < shards.size(); s++) {
+            ShardStats shardStats = new ShardStats();
+            List<String> fields = scoringFieldNames(shards.get(s), readers[s]);
+            for (String field : fields) {
+                shardStats.getFields().put(field, shards.get(s).getStats(readers[s], field).localStats(terms));
+            }
+            PostingsScorer scorer = new PostingsScorer(readers[s], rankingModel(null),
+                    scoringFields(shards.get(s), readers[s], null),
+                    phraseWeight, proximityWeight, proximityWindow, pruning);
+            scorer.featureStats(query, shardStats.getFields().get(fields.get(0)));
+            stats.add(shardStats);
+        }
+        return stats;
+    }
 
-        double score = 0.0;
-        int docLength = getDocLength(reader, docId);
+    //Best k of the shards' hits in the requested order, with collapse only the best hit of each DUP_GROUP
+    //(a group can span shards). A shard's own top k (per group) holds every hit it has in the merged top k,
+    //so the merge is exact. Facet counts are added up
+    private static ShardResult merge(List<ShardResult> results, int k, SearchOptions options) {
+        Comparator<ShardResult.Hit> order = Comparator.comparing(
+                (ShardResult.Hit hit) -> new ScoredDoc(hit.getDocId(), hit.getScore(), hit.getSortValue()),
+                ScoredDoc.comparator(options.getSort())).thenComparingInt(ShardResult.Hit::getShard);
+
+        ShardResult merged = new ShardResult();
+        List<ShardResult.Hit> hits = new ArrayList<>();
+        for (ShardResult result : results) {
+            hits.addAll(result.getHits());
+            merged.setPartial(merged.isPartial() || result.isPartial());
+            if (result.getFacets() != null) {
+                if (merged.getFacets() == null) merged.setFacets(new LinkedHashMap<>());
+                result.getFacets().forEach((dim, counts) -> {
+                    Map<String, Integer> mergedCounts = merged.getFacets().computeIfAbsent(dim, d -> new HashMap<>());
+                    counts.forEach((value, count) -> mergedCounts.merge(value, count, Integer::sum));
+                });
+            }
+        }
 
-        if (docLength == 0) {
-            return Double.NEGATIVE_INFINITY;
+        hits.sort(order);
+        Set<Long> groups = new HashSet<>();
+        for (ShardResult.Hit hit : hits) {
+            if (merged.getHits().size() >= k) break;
+            if (options.isCollapse() && !groups.add(hit.getGroup())) continue;
+            merged.getHits().add(hit);
         }
+        return merged;
+    }
 
-        //Check if document contains at least one query term
-        boolean containsAnyTerm = false;
+    //Load the stored fields of the merged hits in order and hand each hit to the consumer once it has its
+    //Game. Past the deadline the rest get plain snippets, returns whether that happened
+    private boolean hydrate(ShardResult merged, List<IndexShard> shards, DirectoryReader[] readers,
+                            ParsedQuery query, SearchOptions options, long deadline,
+                            Consumer<ShardResult.Hit> consumer) throws IOException {
+        //Use a set of query stems for highlighting
+        Set<String> queryStemSet = new HashSet<>(Arrays.asList(query.getTerms()));
+        Set<String> fields = options.getFields();
+        Set<String> storedFields = storedFieldsFor(fields);
+        Map<Integer, StoredFields> storedById = new HashMap<>();
+        Map<Integer, DirectoryReader> readerById = new HashMap<>();
+        for (int s = 0; s < shards.size(); s++) {
+            storedById.put(shards.get(s).getId(), readers[s].storedFields());
+            readerById.put(shards.get(s).getId(), readers[s]);
+        }
 
-        for (String term : queryTerms) {
-            if (term.isEmpty()) continue;
+        boolean late = false;
+        for (ShardResult.Hit hit : merged.getHits()) {
+            //Out of time: plain snippets and descriptions for the rest of the page
+            if (!queryStemSet.isEmpty() && deadline != PostingsScorer.NO_DEADLINE
+                    && System.nanoTime() - deadline > 0) {
+                late = true;
+                queryStemSet = Collections.emptySet();
+            }
+            Document doc = documentCache.get(readerById.get(hit.getShard()), storedById.get(hit.getShard()),
+                    hit.getDocId(), storedFields);
+            Game game = buildGame(doc, fields, queryStemSet);
+            if (fields.contains(Game.SCORE)) game.setScore(hit.getScore());
+            hit.setGame(game);
+            consumer.accept(hit);
+        }
+        return late;
+    }
+
+    //Search over the remote shard nodes: their statistics are summed into global ones first, then every
+    //node scores its shards with them and returns its hydrated top hits. A node that fails or runs past
+    //the deadline is left out and the result is partial. With feedback the coordinator runs RM3 itself, so
+    //every node scores the same expanded query: a first pass returns the top hits' terms, the expansion
+    //stems' statistics are summed like the query's, and the expansion goes out with the search. Expansions
+    //are not cached here, the coordinator does not know the nodes' index versions
+    private ShardResult searchRemote(String queryStr, ParsedQuery query, int maxResults, SearchOptions options,
+                                     long deadline, SearchResult searchResult) {
+        boolean[] missing = new boolean[1];
+        ShardStats global = remoteStats(queryStr, List.of(), deadline, missing);
+
+        ShardSearchRequest request = new ShardSearchRequest();
+        request.setQuery(queryStr);
+        request.setMaxResults(maxResults);
+        request.setOptions(options);
+
+        if (options.isFeedback()) {
+            SearchOptions firstPassOptions = new SearchOptions();
+            firstPassOptions.setRankingModel(options.getRankingModel());
+            firstPassOptions.setCollapse(true);
+            ShardSearchRequest firstPass = new ShardSearchRequest();
+            firstPass.setQuery(queryStr);
+            firstPass.setMaxResults(relevanceFeedback.getFeedbackDocs());
+            firstPass.setOptions(firstPassOptions);
+            firstPass.setStats(global);
+            firstPass.setFeedbackTerms(true);
+            ShardResult top = merge(remoteSearch(firstPass, deadline, missing), relevanceFeedback.getFeedbackDocs(),
+                    firstPassOptions);
+
+            List<RelevanceFeedback.FeedbackDocument> documents = new ArrayList<>();
+            for (ShardResult.Hit hit : top.getHits()) {
+                if (hit.getTerms() == null) continue;
+                documents.add(new RelevanceFeedback.FeedbackDocument(hit.getTerms(), hit.getLength(), hit.getScore()));
+            }
+            ParsedQuery expanded = relevanceFeedback.expand(query, documents);
+            if (!expanded.getExpansion().isEmpty()) {
+                global = remoteStats(queryStr, new ArrayList<>(expanded.getExpansion().keySet()), deadline, missing);
+                request.setExpansion(expanded.getExpansion());
+                request.setTermWeight(expanded.getTermWeight());
+                searchResult.setExpansion(expanded.getExpansion());
+            }
+        }
 
-            int termFreqInDoc = getTermFreqInDoc(reader, docId, term);
+        request.setStats(global);
+        ShardResult merged = merge(remoteSearch(request, deadline, missing), maxResults, options);
+        merged.setPartial(merged.isPartial() || missing[0]);
+        return merged;
+    }
 
-            if (termFreqInDoc > 0) {
-                containsAnyTerm = true;
+    //Statistics of the query (and expansion stems) summed over the nodes that answered, missing[0] is set
+    //when one did not
+    private ShardStats remoteStats(String queryStr, List<String> expansion, long deadline, boolean[] missing) {
+        List<CompletableFuture<ShardStats>> futures = new ArrayList<>();
+        for (String url : remoteShards.getUrls()) {
+            futures.add(remoteShards.stats(url, queryStr, expansion, remainingMs(deadline)));
+        }
+        ShardStats global = new ShardStats();
+        for (int n = 0; n < futures.size(); n++) {
+            try {
+                global.add(futures.get(n).join());
+            } catch (CompletionException e) {
+                System.err.println("Shard node " + remoteShards.getUrls().get(n) + " stats failed: "
+                        + e.getCause().getMessage());
+                missing[0] = true;
             }
+        }
+        return global;
+    }
+
+    //The request sent to every node, results of the nodes that answered, missing[0] is set when one did not
+    private List<ShardResult> remoteSearch(ShardSearchRequest request, long deadline, boolean[] missing) {
+        request.setTimeoutMs(remainingMs(deadline));
+        List<CompletableFuture<ShardResult>> futures = new ArrayList<>();
+        for (String url : remoteShards.getUrls()) {
+            futures.add(remoteShards.search(url, request, request.getTimeoutMs()));
+        }
+        List<ShardResult> results = new ArrayList<>();
+        for (int n = 0; n < futures.size(); n++) {
+            try {
+                results.add(futures.get(n).join());
+            } catch (CompletionException e) {
+                System.err.println("Shard node " + remoteShards.getUrls().get(n) + " search failed: "
+                        + e.getCause().getMessage());
+                missing[0] = true;
+            }
+        }
+        return results;
+    }
 
-            long collectionFreq = getCollectionFreq(reader, term);
+    //Milliseconds left before the deadline, at least 1, or 0 without a deadline
+    private static long remainingMs(long deadline) {
+        if (deadline == PostingsScorer.NO_DEADLINE) {
+            return 0;
+        }
+        return Math.max(1, (deadline - System.nanoTime()) / 1_000_000);
+    }
 
-            double probTermInCollection = (double) collectionFreq / collectionLength;
-            double probTermInDoc = (termFreqInDoc + MU * probTermInCollection) / (docLength + MU);
+    //DUP_GROUP of a hit, documents without one (older index) get a group of their own
+    private static long dupGroup(DirectoryReader reader, int shard, int docId) throws IOException {
+        List<LeafReaderContext> leaves = reader.leaves();
+        LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docId, leaves));
+        NumericDocValues groups = leaf.reader().getNumericDocValues("DUP_GROUP");
+        if (groups != null && groups.advanceExact(docId - leaf.docBase)) {
+            return groups.longValue();
+        }
+        return -1L - (((long) shard << 32) | docId);
+    }
 
-            //Use log probability to avoid underflow
-            if (probTermInDoc > 0) {
-                score += Math.log(probTermInDoc);
+    private static DirectoryReader[] acquire(List<IndexShard> shards) throws IOException {
+        DirectoryReader[] readers = new DirectoryReader[shards.size()];
+        try {
+            for (int s = 0; s < readers.length; s++) {
+                readers[s] = shards.get(s).acquire();
             }
+        } catch (IOException e) {
+            release(shards, readers);
+            throw e;
         }
+        return readers;
+    }
 
-        //Only return score if document contains at least one query term
-        if (!containsAnyTerm) {
-            return Double.NEGATIVE_INFINITY;
+    private static void release(List<IndexShard> shards, DirectoryReader[] readers) {
+        if (readers == null) return;
+        for (int s = 0; s < readers.length; s++) {
+            if (readers[s] == null) continue;
+            try {
+                shards.get(s).release(readers[s]);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
+    }
 
-        return score;
+    private static <T> T join(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a shard", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            if (e.getCause() instanceof RuntimeException runtime) throw runtime;
+            throw new IOException(e.getCause());
+        }
     }
-    // ====================================== //
+    // =========================================== //
+
+    //Price range (BKD points) and author/platform terms as one filter weight, null when nothing is filtered.
+    //An index built before prices were indexed has no PRICE_CENTS: no game has a known price, nothing matches
+    private Weight buildFilter(IndexSearcher searcher, IndexShard shard, DirectoryReader reader,
+                               SearchOptions options) throws IOException {
+        BooleanQuery.Builder filters = new BooleanQuery.Builder();
+        boolean any = false;
+
+        if (options.hasPriceFilter()) {
+            if (shard.hasField(reader, "PRICE_CENTS")) {
+                long minCents = options.getMinPrice() == null ? Long.MIN_VALUE : Math.round(options.getMinPrice() * 100);
+                long maxCents = options.getMaxPrice() == null ? Long.MAX_VALUE : Math.round(options.getMaxPrice() * 100);
+                filters.add(LongPoint.newRangeQuery("PRICE_CENTS", minCents, maxCents), BooleanClause.Occur.FILTER);
+            } else {
+                shard.warnOnce("index has no PRICE_CENTS field, rebuild with IndexBuilderMain to filter by price");
+                filters.add(new MatchNoDocsQuery("no PRICE_CENTS field"), BooleanClause.Occur.FILTER);
+            }
+            any = true;
+        }
+        if (options.getAuthor() != null) {
+            filters.add(new TermQuery(new Term("AUTHOR", options.getAuthor())), BooleanClause.Occur.FILTER);
+            any = true;
+        }
+        if (options.getPlatform() != null) {
+            filters.add(new TermQuery(new Term("PLATFORM", options.getPlatform())), BooleanClause.Occur.FILTER);
+            any = true;
+        }
 
-    //Get document length from CONTENT field with caching
-    private int getDocLength(DirectoryReader reader, int docId) throws IOException {
-        if (docLengthCache.containsKey(docId)) {
-            return docLengthCache.get(docId);
+        if (!any) {
+            return null;
         }
+        Query query = searcher.rewrite(filters.build());
+        return searcher.createWeight(query, ScoreMode.COMPLETE_NO_SCORES, 1f);
+    }
 
-        Terms terms = reader.getTermVector(docId, "CONTENT");
-        if (terms == null) {
-            return 0;
+    //Requested ranking model, or the configured default when none was requested
+    private RankingModel rankingModel(String name) {
+        String model = name == null ? defaultRankingModel : name;
+        switch (model) {
+            case RankingModel.JELINEK_MERCER: return new JelinekMercerModel(jmLambda);
+            case RankingModel.TWO_STAGE: return new TwoStageModel(twoStageLambda);
+            case RankingModel.BM25: return new Bm25Model(bm25K1, bm25B);
+            case RankingModel.DIRICHLET: return new DirichletModel();
+            default:
+                throw new IllegalArgumentException("Unknown ranking model '" + model + "', expected one of "
+                        + RankingModel.NAMES);
         }
+    }
 
-        int length = 0;
-        TermsEnum termsEnum = terms.iterator();
-        while (termsEnum.next() != null) {
-            length += termsEnum.totalTermFreq();
+    //CONTENT alone, or mixed with stemmed TITLE when a title weight is set and the index has the field.
+    //Each field's stats are the shard's, or a global view of them when global statistics are given
+    private List<PostingsScorer.ScoringField> scoringFields(IndexShard shard, DirectoryReader reader,
+                                                            ShardStats global) throws IOException {
+        List<String> names = scoringFieldNames(shard, reader);
+        List<CollectionStats> fieldStats = new ArrayList<>();
+        for (String name : names) {
+            CollectionStats stats = shard.getStats(reader, name);
+            ShardStats.FieldStats globalStats = global != null ? global.getFields().get(name) : null;
+            fieldStats.add(globalStats != null ? stats.withGlobal(globalStats) : stats);
         }
 
-        docLengthCache.put(docId, length);
-        return length;
+        List<PostingsScorer.ScoringField> scoringFields = new ArrayList<>();
+        if (names.size() == 1) {
+            scoringFields.add(new PostingsScorer.ScoringField(fieldStats.get(0), 1.0, mu));
+            return scoringFields;
+        }
+        scoringFields.add(new PostingsScorer.ScoringField(fieldStats.get(0), 1.0 - titleWeight, mu));
+        scoringFields.add(new PostingsScorer.ScoringField(fieldStats.get(1), titleWeight, titleMu));
+        return scoringFields;
     }
 
-    //Get term frequency in document CONTENT field
-    private int getTermFreqInDoc(DirectoryReader reader, int docId, String term) throws IOException {
-        Terms terms = reader.getTermVector(docId, "CONTENT");
-        if (terms == null) {
-            return 0;
+    private List<String> scoringFieldNames(IndexShard shard, DirectoryReader reader) {
+        if (titleWeight <= 0 || !shard.hasField(reader, "TITLE_STEMMED")) {
+            return List.of("CONTENT");
         }
+        return List.of("CONTENT", "TITLE_STEMMED");
+    }
 
-        TermsEnum termsEnum = terms.iterator();
-        if (termsEnum.seekExact(new BytesRef(term))) {
-            PostingsEnum postings = termsEnum.postings(null, PostingsEnum.FREQS);
-            if (postings != null && postings.nextDoc() != PostingsEnum.NO_MORE_DOCS) {
-                return postings.freq();
-            }
+    //Map requested Game fields to the stored index fields that must be loaded
+    private Set<String> storedFieldsFor(Set<String> fields) {
+        Set<String> stored = new HashSet<>();
+        if (fields.contains(Game.DOCNO)) stored.add("DOCNO");
+        if (fields.contains(Game.TITLE)) stored.add("TITLE");
+        if (fields.contains(Game.AUTHOR)) stored.add("AUTHOR");
+        if (fields.contains(Game.PRICE)) stored.add("PRICE");
+        if (fields.contains(Game.URL)) stored.add("URL");
+        if (fields.contains(Game.SNIPPET) || fields.contains(Game.FULL_DESCRIPTION)
+                || fields.contains(Game.HIGHLIGHTED_DESCRIPTION)) {
+            stored.add("CONTENT_ORIGINAL");
         }
-        return 0;
+        return stored;
     }
 
-    //Get collection frequency with caching
-    private long getCollectionFreq(DirectoryReader reader, String term) throws IOException {
-        if (collectionFreqCache.containsKey(term)) {
-            return collectionFreqCache.get(term);
+    //Hydrate a Game with only the requested fields, highlighting with the query stems
+    private Game buildGame(Document doc, Set<String> fields, Set<String> queryStemSet) {
+        Game game = new Game();
+        if (fields.contains(Game.DOCNO)) game.setDocno(doc.get("DOCNO"));
+        if (fields.contains(Game.TITLE)) game.setTitle(doc.get("TITLE"));
+        if (fields.contains(Game.AUTHOR)) game.setAuthor(doc.get("AUTHOR"));
+        if (fields.contains(Game.PRICE)) game.setPrice(doc.get("PRICE"));
+        if (fields.contains(Game.URL)) game.setUrl(doc.get("URL"));
+
+        String originalDescription = doc.get("CONTENT_ORIGINAL");
+        if (fields.contains(Game.FULL_DESCRIPTION)) {
+            game.setFullDescription(originalDescription);
+        }
+
+        //Generate highlighted description using backend stems
+        if (fields.contains(Game.HIGHLIGHTED_DESCRIPTION)) {
+            String highlighted = highlightDescriptionWithStems(originalDescription, queryStemSet);
+            game.setHighlightedDescription(highlighted);
         }
 
-        long totalFreq = 0;
-        for (int i = 0; i < reader.leaves().size(); i++) {
-            Terms terms = reader.leaves().get(i).reader().terms("CONTENT");
-            if (terms != null) {
-                TermsEnum termsEnum = terms.iterator();
-                if (termsEnum.seekExact(new BytesRef(term))) {
-                    totalFreq += termsEnum.totalTermFreq();
+        if (fields.contains(Game.SNIPPET)) {
+            game.setSnippet(buildSnippet(originalDescription, queryStemSet));
+        }
+
+        return game;
+    }
+
+    //Stem the whole query and, separately, every quoted phrase of two or more stems
+    private ParsedQuery parseQuery(String query) {
+        String[] terms = preprocessQuery(query);
+        List<String[]> phrases = new ArrayList<>();
+
+        if (query != null) {
+            Matcher matcher = QUOTED_PHRASE.matcher(query);
+            while (matcher.find()) {
+                String[] phrase = preprocessQuery(matcher.group(1));
+                if (phrase.length > 1) {
+                    phrases.add(phrase);
                 }
             }
         }
+        return new ParsedQuery(terms, phrases);
+    }
+
+    //Preprocess query using Porter Stemmer same as assignment
+    private String[] preprocessQuery(String query) {
+        if (query == null || query.trim().isEmpty()) {
+            return new String[0];
+        }
 
-        collectionFreqCache.put(term, totalFreq);
-        return totalFreq;
+        //Tokenize by splitting on non-alphanumeric characters
+        String[] tokens = query.toLowerCase().split("[^a-zA-Z0-9]+");
+        List<String> processedTokens = new ArrayList<>();
+
+        //Load stopwords
+        Set<String> stopwords = loadStopwords();
+
+        for (String token : tokens) {
+            if (token.isEmpty()) continue;
+
+            //Skip stopwords
+            if (stopwords.contains(token)) continue;
+
+            //Apply Porter Stemmer
+            Stemmer stemmer = new Stemmer();
+            char[] chars = token.toCharArray();
+            stemmer.add(chars, chars.length);
+            stemmer.stem();
+            String stemmedToken = stemmer.toString();
+
+            if (!stemmedToken.isEmpty()) {
+                processedTokens.add(stemmedToken);
+            }
+        }
+
+        return processedTokens.toArray(new String[0]);
     }
 
-    //Calculate total collection length
-    private long calculateCollectionLength(DirectoryReader reader) throws IOException {
-        long total = 0;
-        for (int i = 0; i < reader.maxDoc(); i++) {
-            total += getDocLength(reader, i);
+    //Load stopwords from file
+    private Set<String> loadStopwords() {
+        Set<String> stopwords = new HashSet<>();
+        try (InputStream is = getClass().getClassLoader()
+                .getResourceAsStream("stopwords.txt");
+             BufferedReader reader = new BufferedReader(
+                     new InputStreamReader(is, StandardCharsets.UTF_8))) {
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String word = line.trim().toLowerCase();
+                if (!word.isEmpty()) {
+                    stopwords.add(word);
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Error loading stopwords: " + e.getMessage());
         }
-        return total;
+        return stopwords;
     }
 
     //Return stemmed query for frontend highlighting
@@ -321,6 +1048,37 @@ public class GameSearchService {
         return result.toString();
     }
 
+    //Cut a short window around the first query match and highlight only that window
+    private String buildSnippet(String text, Set<String> queryStems) {
+        if (text == null || text.length() <= snippetLength) {
+            return highlightDescriptionWithStems(text, queryStems);
+        }
+
+        //Find the first token whose stem matches the query, without stems (out of time) start at the top
+        int matchStart = -1;
+        int tokenStart = -1;
+        for (int i = 0; i <= text.length() && matchStart < 0 && !queryStems.isEmpty(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && tokenStart < 0) {
+                tokenStart = i;
+            } else if (!wordChar && tokenStart >= 0) {
+                if (queryStems.contains(stemToken(text.substring(tokenStart, i)))) {
+                    matchStart = tokenStart;
+                }
+                tokenStart = -1;
+            }
+        }
+
+        //Start a little before the match, snapped to a word boundary
+        int start = matchStart < 0 ? 0 : Math.max(0, matchStart - snippetLength / 4);
+        while (start > 0 && !Character.isWhitespace(text.charAt(start - 1))) start--;
+        int end = Math.min(text.length(), start + snippetLength);
+        while (end < text.length() && !Character.isWhitespace(text.charAt(end))) end++;
+
+        String window = highlightDescriptionWithStems(text.substring(start, end), queryStems);
+        return (start > 0 ? "..." : "") + window + (end < text.length() ? "..." : "");
+    }
+
     //Stem a single token using the same Stemmer as in indexing and scoring
     private String stemToken(String token) {
         if (token == null || token.isEmpty()) {
@@ -0,0 +1,337 @@
+package com.itchsearch.service;
+
+import com.itchsearch.model.CommitPoint;
+import com.itchsearch.util.ShardRouter;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+//Owns the index: data/index as one IndexShard, or one IndexShard per shard-<i> directory of a build made
+//with IndexBuilderMain --shards (games are assigned to shards by ShardRouter). A shard node opens only the
+//shard set in itchsearch.index.shard.
+//With ingest enabled the readers are near-real-time: a background task reopens them from their writers
+//every refresh interval (only new segments are opened) and commits the writers every commit interval.
+//A replica (itchsearch.replication.primary) has no writers: it copies the commits of its primary with
+//ReplicationService and reopens a shard whenever a new commit of it has been copied
+
+@Service
+public class IndexManager {
+
+    private static final String INDEX_DIR = "data/index";
+    private static final String STATS_DIR = "data/stats";
+
+    //mmap, nio or auto (FSDirectory.open picks)
+    @Value("${itchsearch.index.directory:mmap}")
+    private String directoryType;
+
+    //Preload mapped files into the page cache when they are opened (mmap only)
+    @Value("${itchsearch.index.preload:true}")
+    private boolean preload;
+
+    //Extensions preloaded: postings (doc, pos, tim, tip, tmd), doc values (dvd, dvm) and the HNSW vectors and
+    //graph (vec, vex, vem), stored fields and term vectors stay lazily paged in
+    @Value("${itchsearch.index.preload-extensions:doc,pos,tim,tip,tmd,dvd,dvm,vec,vex,vem}")
+    private String preloadExtensions;
+
+    //Shard of a sharded index served by this instance, -1 for all of them
+    @Value("${itchsearch.index.shard:-1}")
+    private int servedShard;
+
+    //Open a writer for /api/documents, otherwise (the default) the index is read-only and other JVMs can open it
+    @Value("${itchsearch.ingest.enabled:false}")
+    private boolean ingestEnabled;
+
+    //Indexed documents become searchable within this interval
+    @Value("${itchsearch.ingest.refresh-interval-ms:1000}")
+    private long refreshIntervalMs;
+
+    //Changes are durable (survive a crash) after the next commit
+    @Value("${itchsearch.ingest.commit-interval-seconds:60}")
+    private long commitIntervalSeconds;
+
+    @Autowired
+    private ReplicationService replication;
+
+    @Autowired
+    private SuggestService suggestService;
+
+    //Replicas open the shards late when the primary cannot be reached at startup
+    private final List<IndexShard> shards = new CopyOnWriteArrayList<>();
+    //Shards of the build, also those this instance does not serve
+    private int shardCount;
+    private ScheduledExecutorService scheduler;
+    //Commits run on their own thread: writing the stats sidecars of a commit takes seconds and must not
+    //hold back refreshes
+    private ScheduledExecutorService commitScheduler;
+    private Path indexPath;
+    private Path statsPath;
+    //Whether a replica tried to open its shards yet
+    private boolean attemptedOpen;
+    //Shard count of the primary a replica copies, 0 when unknown
+    private int replicatedShardCount;
+
+    @PostConstruct
+    public void open() {
+        indexPath = Paths.get(System.getProperty("user.dir")).resolve(INDEX_DIR);
+        statsPath = Paths.get(System.getProperty("user.dir")).resolve(STATS_DIR);
+        if (replication.isEnabled()) {
+            if (ingestEnabled) {
+                System.out.println("Replica: ingest disabled, documents are indexed on the primary");
+                ingestEnabled = false;
+            }
+            //The first copy runs before the server starts, later ones in the background
+            replicate();
+            scheduler = newScheduler("index-replication");
+            scheduler.scheduleWithFixedDelay(this::replicate, replication.getPollIntervalMs(),
+                    replication.getPollIntervalMs(), TimeUnit.MILLISECONDS);
+            return;
+        }
+        openShards();
+        if (ingestEnabled && !shards.isEmpty()) {
+            scheduler = newScheduler("index-refresh");
+            scheduler.scheduleWithFixedDelay(() -> shards.forEach(IndexShard::refresh),
+                    refreshIntervalMs, refreshIntervalMs, TimeUnit.MILLISECONDS);
+            commitScheduler = newScheduler("index-commit");
+            commitScheduler.scheduleWithFixedDelay(() -> shards.forEach(IndexShard::commit),
+                    commitIntervalSeconds, commitIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    private void openShards() {
+        if (!Files.exists(indexPath)) {
+            System.err.println("Warning: no index at " + indexPath + ", run IndexBuilderMain first");
+            return;
+        }
+
+        List<IndexShard> opened = new ArrayList<>();
+        try {
+            long start = System.nanoTime();
+            shardCount = replicatedShardCount > 0 ? replicatedShardCount : shardDirectories();
+            if (shardCount == 0 || replicatedShardCount == 1) {
+                opened.add(new IndexShard(0, openDirectory(indexPath), statsPath, ingestEnabled));
+                shardCount = 1;
+            } else {
+                for (int id = 0; id < shardCount; id++) {
+                    if (servedShard >= 0 && id != servedShard) continue;
+                    String name = ShardRouter.shardName(id);
+                    opened.add(new IndexShard(id, openDirectory(indexPath.resolve(name)), statsPath.resolve(name),
+                            ingestEnabled));
+                }
+                if (opened.isEmpty()) {
+                    System.err.println("Warning: itchsearch.index.shard=" + servedShard + " but the index has "
+                            + shardCount + " shards");
+                    return;
+                }
+            }
+
+            int docs = 0;
+            for (IndexShard shard : opened) {
+                DirectoryReader reader = shard.acquire();
+                try {
+                    docs += reader.numDocs();
+                } finally {
+                    shard.release(reader);
+                }
+            }
+            System.out.println("Opened index " + indexPath + (shardCount > 1 ? " (" + opened.size() + " of "
+                    + shardCount + " shards)" : "") + " with " + opened.get(0).getDirectory().getClass().getSimpleName()
+                    + " (" + docs + " docs" + (ingestEnabled ? ", ingest enabled" : "") + ") in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+            shards.addAll(opened);
+        } catch (IOException e) {
+            System.err.println("Error opening index: " + e.getMessage());
+            for (IndexShard shard : opened) {
+                try {
+                    shard.close();
+                } catch (IOException closeError) {
+                    //Already failing
+                }
+            }
+        }
+    }
+
+    //Copy the new commits of the primary's shards served here and reopen those shards. Until the index is
+    //open (first copy, or the primary was down at startup) the shards are opened once their commits are copied
+    private void replicate() {
+        List<CommitPoint> points;
+        try {
+            points = replication.commitPoints();
+        } catch (IOException | RuntimeException e) {
+            replication.failed("", e);
+            if (shards.isEmpty() && !attemptedOpen) {
+                //Serve the last copy while the primary is down
+                attemptedOpen = true;
+                openShards();
+            }
+            return;
+        }
+
+        if (!points.isEmpty()) {
+            replicatedShardCount = points.get(0).getShardCount();
+            if (!shards.isEmpty()) shardCount = replicatedShardCount;
+        }
+
+        //Commits copied before the shards were open, searchable once they are
+        List<ReplicationService.Transfer> unopened = new ArrayList<>();
+        for (CommitPoint point : points) {
+            if (servedShard >= 0 && point.getShard() != servedShard) continue;
+            Path shardPath = ReplicationService.shardPath(indexPath, point.getShard(), point.getShardCount());
+            try {
+                ReplicationService.Transfer transfer = replication.copy(point, shardPath,
+                        ReplicationService.shardPath(statsPath, point.getShard(), point.getShardCount()));
+                if (transfer == null) continue;
+                if (shards.isEmpty()) {
+                    unopened.add(transfer);
+                    continue;
+                }
+                long start = System.nanoTime();
+                for (IndexShard shard : shards) {
+                    if (shard.getId() == point.getShard()) shard.refresh();
+                }
+                replication.finish(transfer, shardPath, System.nanoTime() - start);
+            } catch (IOException | RuntimeException e) {
+                replication.failed("shard " + point.getShard() + ": ", e);
+            }
+        }
+        if (!points.isEmpty()) {
+            try {
+                if (replication.copySuggest(points.get(0), suggestService.getSuggestPath()) > 0) {
+                    suggestService.load();
+                }
+            } catch (IOException | RuntimeException e) {
+                replication.failed("suggest: ", e);
+            }
+        }
+        if (shards.isEmpty() && (!unopened.isEmpty() || !attemptedOpen)) {
+            attemptedOpen = true;
+            long start = System.nanoTime();
+            openShards();
+            long openNanos = System.nanoTime() - start;
+            for (ReplicationService.Transfer transfer : unopened) {
+                CommitPoint point = transfer.getPoint();
+                replication.finish(transfer, ReplicationService.shardPath(indexPath, point.getShard(),
+                        point.getShardCount()), openNanos);
+            }
+        }
+    }
+
+    //1 + the highest shard-<i> directory in data/index, 0 for an unsharded index. A shard node may only have
+    //the directory of its own shard
+    private int shardDirectories() throws IOException {
+        int count = 0;
+        try (Stream<Path> paths = Files.list(indexPath)) {
+            for (Path path : paths.toList()) {
+                String name = path.getFileName().toString();
+                if (Files.isDirectory(path) && name.matches(ShardRouter.SHARD_PREFIX + "\\d+")) {
+                    count = Math.max(count, Integer.parseInt(name.substring(ShardRouter.SHARD_PREFIX.length())) + 1);
+                }
+            }
+        }
+        return count;
+    }
+
+    private static ScheduledExecutorService newScheduler(String name) {
+        return Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        for (ScheduledExecutorService executor : new ScheduledExecutorService[]{scheduler, commitScheduler}) {
+            if (executor == null) continue;
+            executor.shutdown();
+            try {
+                executor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (IndexShard shard : shards) {
+            shard.close();
+        }
+    }
+
+    //Shards served by this instance in shard order, throws when the index is not open
+    public List<IndexShard> getShards() throws IOException {
+        if (shards.isEmpty()) {
+            throw new IOException("Index is not open, run IndexBuilderMain and restart");
+        }
+        return Collections.unmodifiableList(shards);
+    }
+
+    //Shard a docno belongs to, null when this instance does not serve it
+    public IndexShard shardFor(String docno) throws IOException {
+        int id = ShardRouter.shardOf(docno, shardCount);
+        for (IndexShard shard : getShards()) {
+            if (shard.getId() == id) return shard;
+        }
+        return null;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    //Changes whenever the reader of any shard changes (reader versions only grow)
+    public long getVersion() throws IOException {
+        long version = 0;
+        for (IndexShard shard : getShards()) {
+            version += shard.getVersion();
+        }
+        return version;
+    }
+
+    private Directory openDirectory(Path indexPath) throws IOException {
+        switch (directoryType.toLowerCase(Locale.ROOT)) {
+            case "nio":
+                return new NIOFSDirectory(indexPath);
+            case "auto":
+                return FSDirectory.open(indexPath);
+            case "mmap":
+                MMapDirectory mmap = new MMapDirectory(indexPath);
+                if (preload) {
+                    Set<String> extensions = new HashSet<>();
+                    for (String ext : preloadExtensions.split(",")) {
+                        if (!ext.isBlank()) extensions.add(ext.trim());
+                    }
+                    mmap.setPreload((name, context) -> extensions.contains(extension(name)));
+                }
+                return mmap;
+            default:
+                throw new IllegalArgumentException("Unknown itchsearch.index.directory '" + directoryType
+                        + "', expected mmap, nio or auto");
+        }
+    }
+
+    //Extension of an index file name, per-field formats are named like _0_Lucene99_0.doc
+    private static String extension(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot < 0 ? "" : fileName.substring(dot + 1);
+    }
+}
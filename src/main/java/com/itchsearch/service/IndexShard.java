@@ -0,0 +1,349 @@
+package com.itchsearch.service;
+
+import com.itchsearch.model.CommitPoint;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.KeepOnlyLastCommitDeletionPolicy;
+import org.apache.lucene.index.ReaderManager;
+import org.apache.lucene.index.SnapshotDeletionPolicy;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+//One index directory: its current reader, the IndexWriter of the ingest API (when enabled) and the
+//collection statistics of each reader. IndexManager opens one for data/index, or one per shard directory
+//of a sharded build. Callers acquire the current reader and release it when done, so a refresh never
+//closes it under them.
+//The shard also publishes its commits to replicas: the writer's last commits are held by snapshots so their
+//files stay on disk while replicas copy them, a read-only shard publishes the commit of its current reader.
+//The stats sidecars written for a commit are published with it
+public class IndexShard implements Closeable {
+
+    //Commits whose files are kept for replicas, a replica still copying the previous commit can finish
+    private static final int PUBLISHED_COMMITS = 2;
+    //Fields with a stats sidecar, as written by IndexBuilderMain
+    private static final String[] SIDECAR_FIELDS = {"CONTENT", "TITLE_STEMMED"};
+
+    private final int id;
+    private final Directory directory;
+    private final Path statsDir;
+    private final IndexWriter writer;
+    private final SnapshotDeletionPolicy snapshots;
+    //Snapshotted commits, oldest first
+    private final Deque<IndexCommit> published = new ArrayDeque<>();
+    private final ReaderManager readerManager;
+    //Stats per reader by reader cache key, dropped when the reader closes
+    private final Map<Object, Map<String, CollectionStats>> stats = new ConcurrentHashMap<>();
+    //Stats made last per field, refreshed incrementally for the next reader
+    private final Map<String, CollectionStats> latestStats = new ConcurrentHashMap<>();
+    //Fields of each reader by reader cache key, dropped when the reader closes
+    private final Map<Object, FieldInfos> fieldInfos = new ConcurrentHashMap<>();
+    //Warnings about this shard's index already logged
+    private final Set<String> warnings = ConcurrentHashMap.newKeySet();
+
+    //Shard id (0 for an unsharded index), its directory and where its stats sidecars are
+    public IndexShard(int id, Directory directory, Path statsDir, boolean ingest) throws IOException {
+        this.id = id;
+        this.directory = directory;
+        this.statsDir = statsDir;
+        if (ingest) {
+            //Same settings as IndexBuilderMain, documents arrive already analyzed by LuceneDocumentBuilder
+            snapshots = new SnapshotDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy());
+            IndexWriterConfig config = new IndexWriterConfig(new WhitespaceAnalyzer())
+                    .setOpenMode(IndexWriterConfig.OpenMode.APPEND)
+                    .setUseCompoundFile(false)
+                    .setIndexDeletionPolicy(snapshots);
+            writer = new IndexWriter(directory, config);
+            readerManager = new ReaderManager(writer, true, true);
+            publish();
+        } else {
+            writer = null;
+            snapshots = null;
+            readerManager = new ReaderManager(directory);
+        }
+        readerManager.addListener(new ReferenceManager.RefreshListener() {
+            @Override
+            public void beforeRefresh() {
+            }
+
+            @Override
+            public void afterRefresh(boolean didRefresh) {
+                if (didRefresh) warmStats();
+            }
+        });
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public Directory getDirectory() {
+        return directory;
+    }
+
+    //Current reader, must be given back with release (never closed by the caller)
+    public DirectoryReader acquire() throws IOException {
+        return readerManager.acquire();
+    }
+
+    public void release(DirectoryReader reader) throws IOException {
+        readerManager.release(reader);
+    }
+
+    //Version of the current reader, changes with every refresh that saw index changes
+    public long getVersion() throws IOException {
+        DirectoryReader reader = acquire();
+        try {
+            return reader.getVersion();
+        } finally {
+            release(reader);
+        }
+    }
+
+    //Writer of the ingest API, null when ingest is disabled
+    public IndexWriter getWriter() {
+        return writer;
+    }
+
+    //Statistics of a field of an acquired reader, made on first use: refreshed from the last stats made for
+    //the field when there are some, else the mapped sidecar when it was written for this commit, else computed.
+    //A read-only shard (a replica) maps the sidecar copied with each new commit before refreshing
+    public CollectionStats getStats(DirectoryReader reader, String field) throws IOException {
+        IndexReader.CacheHelper cacheHelper = reader.getReaderCacheHelper();
+        Map<String, CollectionStats> readerStats = stats.computeIfAbsent(cacheHelper.getKey(), key -> {
+            cacheHelper.addClosedListener(stats::remove);
+            return new ConcurrentHashMap<>();
+        });
+        try {
+            return readerStats.computeIfAbsent(field, f -> {
+                try {
+                    long start = System.nanoTime();
+                    CollectionStats previous = latestStats.get(f);
+                    CollectionStats fieldStats;
+                    String source;
+                    Path sidecar = CollectionStats.sidecarFile(statsDir, f);
+                    fieldStats = previous == null || writer == null ? CollectionStats.load(sidecar, reader, f) : null;
+                    if (fieldStats != null) {
+                        source = " mapped from " + sidecar;
+                    } else if (previous != null) {
+                        fieldStats = CollectionStats.refresh(previous, reader);
+                        source = " refreshed";
+                    } else {
+                        fieldStats = CollectionStats.compute(reader, f);
+                        source = " computed from index";
+                    }
+                    latestStats.put(f, fieldStats);
+                    System.out.println("Stats for " + f + source + " (" + reader.maxDoc() + " docs) in "
+                            + (System.nanoTime() - start) / 1_000_000 + " ms");
+                    return fieldStats;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    //Whether any segment of an acquired reader has the field, the segments' fields are merged once per reader
+    public boolean hasField(DirectoryReader reader, String field) {
+        IndexReader.CacheHelper cacheHelper = reader.getReaderCacheHelper();
+        FieldInfos infos = fieldInfos.computeIfAbsent(cacheHelper.getKey(), key -> {
+            cacheHelper.addClosedListener(fieldInfos::remove);
+            return FieldInfos.getMergedFieldInfos(reader);
+        });
+        return infos.fieldInfo(field) != null;
+    }
+
+    //Log a warning about this shard's index the first time it comes up, not on every search
+    public void warnOnce(String message) {
+        if (warnings.add(message)) {
+            System.err.println("Warning: shard " + id + ": " + message);
+        }
+    }
+
+    //Make index changes searchable, called every refresh interval
+    public void refresh() {
+        try {
+            readerManager.maybeRefresh();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Index refresh failed: " + e.getMessage());
+        }
+    }
+
+    //Commit pending changes of the writer, if any
+    public void commit() {
+        try {
+            commitChanges();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Index commit failed: " + e.getMessage());
+        }
+    }
+
+    //Commit replicas should copy: the writer's last commit, or the commit of the current (non near-real-time)
+    //reader of a read-only shard
+    public IndexCommit getPublishedCommit() throws IOException {
+        if (writer != null) {
+            synchronized (published) {
+                return published.getLast();
+            }
+        }
+        DirectoryReader reader = acquire();
+        try {
+            return reader.getIndexCommit();
+        } finally {
+            release(reader);
+        }
+    }
+
+    //Files and checksums of the published commit
+    public CommitPoint getCommitPoint(int shardCount) throws IOException {
+        return describe(id, shardCount, getPublishedCommit(), statsDir);
+    }
+
+    //Open a file of a published commit for a replica, NoSuchFileException for any other file
+    public IndexInput openPublishedFile(String name) throws IOException {
+        List<IndexCommit> commits;
+        if (writer != null) {
+            synchronized (published) {
+                commits = new ArrayList<>(published);
+            }
+        } else {
+            commits = List.of(getPublishedCommit());
+        }
+        for (IndexCommit commit : commits) {
+            if (commit.getFileNames().contains(name)) {
+                return directory.openInput(name, IOContext.READONCE);
+            }
+        }
+        throw new NoSuchFileException(name + " is not part of a published commit");
+    }
+
+    //Stats sidecar of a replica request, NoSuchFileException for any other file. The replica checks the
+    //header of what it copied, a sidecar rewritten for a newer commit meanwhile is not taken for this one
+    public Path publishedStatsFile(String name) throws IOException {
+        for (String field : SIDECAR_FIELDS) {
+            Path file = CollectionStats.sidecarFile(statsDir, field);
+            if (file.getFileName().toString().equals(name)) return file;
+        }
+        throw new NoSuchFileException(name + " is not a stats sidecar");
+    }
+
+    //Commit point of any commit, also used by replicas reading a primary's index directory directly.
+    //The checksum is read from the codec footer, the file itself is not verified. Sidecars in statsDir are
+    //listed when they were written for this commit
+    public static CommitPoint describe(int shard, int shardCount, IndexCommit commit, Path statsDir)
+            throws IOException {
+        CommitPoint point = new CommitPoint();
+        point.setShard(shard);
+        point.setShardCount(shardCount);
+        point.setGeneration(commit.getGeneration());
+        point.setSegmentsFile(commit.getSegmentsFileName());
+        for (String name : commit.getFileNames()) {
+            CommitPoint.IndexFile file = new CommitPoint.IndexFile();
+            file.setName(name);
+            try (IndexInput input = commit.getDirectory().openInput(name, IOContext.READONCE)) {
+                file.setLength(input.length());
+                file.setChecksum(CodecUtil.retrieveChecksum(input));
+            }
+            point.getFiles().add(file);
+        }
+        int commitIdHash = CollectionStats.commitIdHash(commit);
+        for (String field : SIDECAR_FIELDS) {
+            Path sidecar = CollectionStats.sidecarFile(statsDir, field);
+            if (!CollectionStats.isSidecarFor(sidecar, commit.getGeneration(), commitIdHash)) continue;
+            CommitPoint.IndexFile file = new CommitPoint.IndexFile();
+            file.setName(sidecar.getFileName().toString());
+            file.setLength(Files.size(sidecar));
+            file.setChecksum(commitIdHash);
+            point.getStatsFiles().add(file);
+        }
+        return point;
+    }
+
+    @Override
+    public void close() throws IOException {
+        readerManager.close();
+        if (writer != null) {
+            commitChanges();
+            writer.close();
+        }
+        directory.close();
+    }
+
+    //Commit, write the commit's stats sidecars and publish it, so a restart or a replica maps the sidecars
+    //(with their score bounds and document terms) instead of computing the stats again. Replicas see the commit
+    //once its sidecars are written. Synchronized so a commit on close waits for a periodic one
+    private synchronized void commitChanges() throws IOException {
+        if (writer == null || !writer.hasUncommittedChanges()) return;
+
+        long start = System.nanoTime();
+        writer.commit();
+        System.out.println("Committed index " + directory + " in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+
+        start = System.nanoTime();
+        //The commit just made is the directory's latest, only this method commits
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            for (String field : SIDECAR_FIELDS) {
+                CollectionStats.write(CollectionStats.sidecarFile(statsDir, field), reader, field);
+            }
+            System.out.println("Stats sidecars written to " + statsDir + " (commit generation "
+                    + reader.getIndexCommit().getGeneration() + ") in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } catch (IOException | RuntimeException e) {
+            //The commit is durable and still published, its stats are computed at the next start
+            System.err.println("Stats sidecars of " + directory + " not written: " + e.getMessage());
+        }
+        publish();
+    }
+
+    //Snapshot the writer's last commit and release the snapshots replicas no longer need
+    private void publish() throws IOException {
+        synchronized (published) {
+            published.addLast(snapshots.snapshot());
+            while (published.size() > PUBLISHED_COMMITS) {
+                snapshots.release(published.removeFirst());
+            }
+        }
+        writer.deleteUnusedFiles();
+    }
+
+    //Compute the stats of a freshly refreshed reader before searches need them (on the refresh thread)
+    private void warmStats() {
+        try {
+            DirectoryReader reader = acquire();
+            try {
+                getStats(reader, "CONTENT");
+                if (FieldInfos.getMergedFieldInfos(reader).fieldInfo("TITLE_STEMMED") != null) {
+                    getStats(reader, "TITLE_STEMMED");
+                }
+            } finally {
+                release(reader);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Stats refresh failed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.itchsearch.service;
+
+import java.io.IOException;
+
+//Query likelihood with Jelinek-Mercer smoothing: p(t|D) = (1 - lambda) * tf / |D| + lambda * p(t|C)
+public class JelinekMercerModel implements RankingModel {
+
+    private final double lambda;
+
+    public JelinekMercerModel(double lambda) {
+        this.lambda = lambda;
+    }
+
+    @Override
+    public String getName() {
+        return JELINEK_MERCER;
+    }
+
+    @Override
+    public double termWeight(CollectionStats stats, String term) throws IOException {
+        return DirichletModel.collectionProbability(stats, term);
+    }
+
+    @Override
+    public double fieldScore(int tf, int docLength, double collectionProb, CollectionStats stats, double mu) {
+        double documentProb = docLength == 0 ? 0.0 : (double) tf / docLength;
+        return (1 - lambda) * documentProb + lambda * collectionProb;
+    }
+
+    @Override
+    public double termScore(double probTermInDoc) {
+        return probTermInDoc > 0 ? Math.log(probTermInDoc) : 0.0;
+    }
+}
@@ -0,0 +1,47 @@
+package com.itchsearch.service;
+
+import java.util.List;
+import java.util.Map;
+
+//Stemmed query terms in query order plus the quoted phrases, each phrase also stemmed.
+//A query expanded by pseudo-relevance feedback also has weighted expansion stems, scored like query terms
+//but left out of phrases, proximity and highlighting
+public class ParsedQuery {
+
+    private final String[] terms;
+    private final List<String[]> phrases;
+    private final Map<String, Double> expansion;
+    //Weight of each query term, feedback lowers it to make room for the expansion
+    private final double termWeight;
+
+    public ParsedQuery(String[] terms, List<String[]> phrases) {
+        this(terms, phrases, Map.of(), 1.0);
+    }
+
+    public ParsedQuery(String[] terms, List<String[]> phrases, Map<String, Double> expansion, double termWeight) {
+        this.terms = terms;
+        this.phrases = phrases;
+        this.expansion = expansion;
+        this.termWeight = termWeight;
+    }
+
+    public String[] getTerms() {
+        return terms;
+    }
+
+    public List<String[]> getPhrases() {
+        return phrases;
+    }
+
+    public Map<String, Double> getExpansion() {
+        return expansion;
+    }
+
+    public double getTermWeight() {
+        return termWeight;
+    }
+
+    public boolean isEmpty() {
+        return terms.length == 0;
+    }
+}
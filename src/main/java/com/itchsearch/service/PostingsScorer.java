@@ -0,0 +1,627 @@
+package com.itchsearch.service;
+
+import com.itchsearch.model.ShardStats;
+import com.itchsearch.model.SortOrder;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+//Document-at-a-time scorer over postings, the per-term arithmetic comes from a RankingModel
+//(Dirichlet query likelihood by default). Several fields can be mixed (term score = model applied to the
+//sum of weight * field score), all of them read in the same traversal. Only documents containing at least one query term in some field are
+//visited, and phrase/proximity features decode positions only for documents that contain every
+//term of the feature in the first (primary) field.
+//For relevance order, MaxScore dynamic pruning skips documents whose score upper bound (from per-term
+//bounds in CollectionStats) cannot beat the current k-th score, so the top k is exactly the exhaustive one.
+//With a deadline, traversal stops when it passes and the best documents seen so far are returned (isPartial).
+public class PostingsScorer {
+
+    //Deadline of topDocs calls without a time budget
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private static final int NO_MORE_DOCS = DocIdSetIterator.NO_MORE_DOCS;
+    private static final int MAX_PROXIMITY_PAIRS = 8;
+    //Documents visited between two reads of the clock
+    private static final int DEADLINE_CHECK_INTERVAL = 64;
+
+    private final IndexReader reader;
+    private final RankingModel model;
+    private final List<ScoringField> fields;
+    private final CollectionStats stats;
+    private final double mu;
+    private final double phraseWeight;
+    private final double proximityWeight;
+    private final int proximityWindow;
+    private final boolean pruning;
+    private long deadline = NO_DEADLINE;
+    private boolean partial;
+
+    public PostingsScorer(IndexReader reader, RankingModel model, List<ScoringField> fields,
+                          double phraseWeight, double proximityWeight, int proximityWindow, boolean pruning) {
+        this.reader = reader;
+        this.model = model;
+        this.fields = fields;
+        this.stats = fields.get(0).stats;
+        this.mu = fields.get(0).mu;
+        this.phraseWeight = phraseWeight;
+        this.proximityWeight = proximityWeight;
+        this.proximityWindow = proximityWindow;
+        this.pruning = pruning;
+    }
+
+    //One field of the mixture with its own statistics, mixture weight and Dirichlet prior
+    //(the prior is also used by two-stage smoothing and the phrase/proximity background)
+    public static class ScoringField {
+        final CollectionStats stats;
+        final double weight;
+        final double mu;
+
+        public ScoringField(CollectionStats stats, double weight, double mu) {
+            this.stats = stats;
+            this.weight = weight;
+            this.mu = mu;
+        }
+    }
+
+    //Phrase (ordered, adjacent) or proximity (unordered window) feature over a group of terms
+    private static class Feature {
+        final String[] terms;
+        final boolean ordered;
+        final boolean required;
+        final double weight;
+
+        Feature(String[] terms, boolean ordered, boolean required, double weight) {
+            this.terms = terms;
+            this.ordered = ordered;
+            this.required = required;
+            this.weight = weight;
+        }
+    }
+
+    // =============== RANKING =============== //
+    public List<ScoredDoc> topDocs(ParsedQuery query, int k) throws IOException {
+        return topDocs(query, k, null, SortOrder.RELEVANCE, null, false, NO_DEADLINE);
+    }
+
+    //Top k in the requested order, only documents accepted by the filter (if any) are scored,
+    //and every matching document is counted into the facet counter (if any) in the same pass.
+    //With collapse, only the best document of each DUP_GROUP (near-duplicates) competes for the top k.
+    //Past the deadline (System.nanoTime) the top k of the documents visited so far is returned,
+    //and facet counts cover only those documents
+    public List<ScoredDoc> topDocs(ParsedQuery query, int k, Weight filter, SortOrder sort,
+                                   FacetCounter facets, boolean collapse, long deadline) throws IOException {
+        this.deadline = deadline;
+        this.partial = false;
+        String[] queryTerms = query.getTerms();
+        if (queryTerms.length == 0 || k <= 0 || stats.getCollectionLength() == 0) {
+            return new ArrayList<>();
+        }
+
+        //Unique terms, each query position points at its unique term so duplicates still count twice.
+        //Expansion stems follow, termCounts is the total weight of a unique term
+        List<String> uniqueTerms = new ArrayList<>();
+        Map<String, Double> expansion = query.getExpansion();
+        double termWeight = query.getTermWeight();
+        int[] termIndex = new int[queryTerms.length];
+        double[] termCounts = new double[queryTerms.length + expansion.size()];
+        for (int j = 0; j < queryTerms.length; j++) {
+            int idx = uniqueTerms.indexOf(queryTerms[j]);
+            if (idx < 0) {
+                idx = uniqueTerms.size();
+                uniqueTerms.add(queryTerms[j]);
+            }
+            termIndex[j] = idx;
+            termCounts[idx] += termWeight;
+        }
+        int[] expansionIndex = new int[expansion.size()];
+        double[] expansionWeights = new double[expansion.size()];
+        int e = 0;
+        for (Map.Entry<String, Double> entry : expansion.entrySet()) {
+            int idx = uniqueTerms.indexOf(entry.getKey());
+            if (idx < 0) {
+                idx = uniqueTerms.size();
+                uniqueTerms.add(entry.getKey());
+            }
+            expansionIndex[e] = idx;
+            expansionWeights[e++] = entry.getValue();
+            termCounts[idx] += entry.getValue();
+        }
+
+        int n = uniqueTerms.size();
+        int numFields = fields.size();
+        //Per-field term weights (collection probability or idf), computed once per query
+        double[][] termWeights = new double[numFields][n];
+        for (int f = 0; f < numFields; f++) {
+            for (int i = 0; i < n; i++) {
+                termWeights[f][i] = model.termWeight(fields.get(f).stats, uniqueTerms.get(i));
+            }
+        }
+
+        //Phrase and proximity boosts, computed over the conjunction of each feature's terms
+        Map<Integer, Double> boosts = new HashMap<>();
+        List<Map<Integer, Integer>> requiredFeatures = new ArrayList<>();
+        for (Feature feature : buildFeatures(query)) {
+            //Out of time: a quoted phrase not yet counted is matched by no document, never dropped
+            if (partial) {
+                if (feature.required) requiredFeatures.add(Map.of());
+                continue;
+            }
+            Map<Integer, Integer> freqs = featureFreqs(feature);
+            if (feature.required) {
+                requiredFeatures.add(freqs);
+            }
+            if (partial) continue;
+
+            long featureCollectionFreq = 0;
+            for (int freq : freqs.values()) featureCollectionFreq += freq;
+            if (featureCollectionFreq == 0) continue;
+
+            //Feature statistics summed over all shards when this is a global view of them (scores of shards stay
+            //comparable), this index's own otherwise. Each model scales the boost to its own term scores
+            String key = featureKey(feature);
+            Long globalFreq = stats.featureFreq(key);
+            Integer globalDocFreq = stats.featureDocFreq(key);
+            boolean global = globalFreq != null && globalDocFreq != null;
+            long collectionFreq = global ? globalFreq : featureCollectionFreq;
+            int documentFreq = global ? globalDocFreq : freqs.size();
+            long collectionLength = global ? stats.getCollectionLength() : stats.getLocalCollectionLength();
+            int docCount = global ? stats.getDocCount() : stats.getLocalDocCount();
+            for (Map.Entry<Integer, Integer> entry : freqs.entrySet()) {
+                double boost = model.featureBoost(feature.weight, entry.getValue(), collectionFreq, documentFreq,
+                        collectionLength, docCount, mu);
+                boosts.merge(entry.getKey(), boost, Double::sum);
+            }
+        }
+
+        Comparator<ScoredDoc> order = ScoredDoc.comparator(sort);
+        TopK topK = new TopK(k, order, collapse);
+        int[][] tfs = new int[numFields][n];
+        int[] docLengths = new int[numFields];
+        double[] termScores = new double[n];
+
+        // ===== MAXSCORE PRUNING ===== //
+        //Facet counts need every match, and price order has no score threshold
+        boolean prune = pruning && sort == SortOrder.RELEVANCE && facets == null;
+        //Per unique term: upper bound of its score in documents containing it, and how much that can add
+        //over the bound for documents without it. Terms are made non-essential in order of that gain
+        //once base + gains of the non-essential terms cannot beat the k-th score: a document matching
+        //only non-essential terms is never visited
+        double[] termAbsentBounds = new double[n];
+        double[] termGains = new double[n];
+        double baseBound = 0.0;
+        Integer[] byGain = new Integer[n];
+        boolean[] essential = new boolean[n];
+        Arrays.fill(essential, true);
+        int nonEssential = 0;
+        double threshold = Double.NEGATIVE_INFINITY;
+        if (prune) {
+            for (double boost : boosts.values()) baseBound = Math.max(baseBound, boost);
+            for (int i = 0; i < n; i++) {
+                double present = 0.0;
+                double absent = 0.0;
+                for (int f = 0; f < numFields; f++) {
+                    ScoringField field = fields.get(f);
+                    double absentScore = model.fieldScore(0, 0, termWeights[f][i], field.stats, field.mu);
+                    TermBound bound = field.stats.termBound(uniqueTerms.get(i));
+                    double presentScore = bound.isAbsent() ? absentScore : Math.max(absentScore,
+                            model.fieldScoreBound(bound, termWeights[f][i], field.stats, field.mu));
+                    present += field.weight * presentScore;
+                    absent += field.weight * absentScore;
+                }
+                termAbsentBounds[i] = termCounts[i] * model.termScore(absent);
+                termGains[i] = Math.max(0.0, termCounts[i] * model.termScore(present) - termAbsentBounds[i]);
+                baseBound += termAbsentBounds[i];
+                byGain[i] = i;
+            }
+            Arrays.sort(byGain, Comparator.comparingDouble(i -> termGains[i]));
+        }
+        // ====================================== //
+
+        //Out of time in the phrase pass still scores one batch, so there is something to return
+        int visited = 0;
+        boolean outOfTime = false;
+        for (LeafReaderContext leaf : reader.leaves()) {
+            if (nonEssential == n || outOfTime) break;
+
+            //BKD range filter as an iterator, a leaf with no accepted document is skipped entirely
+            DocIdSetIterator filterIt = null;
+            if (filter != null) {
+                Scorer filterScorer = filter.scorer(leaf);
+                if (filterScorer == null) continue;
+                filterIt = filterScorer.iterator();
+            }
+
+            if (facets != null) {
+                facets.setLeaf(leaf.reader());
+            }
+
+            NumericDocValues prices = sort == SortOrder.RELEVANCE ? null
+                    : DocValues.getNumeric(leaf.reader(), "PRICE_CENTS");
+            NumericDocValues dupGroups = collapse ? DocValues.getNumeric(leaf.reader(), "DUP_GROUP") : null;
+
+            PostingsEnum[][] postings = new PostingsEnum[numFields][n];
+            for (int f = 0; f < numFields; f++) {
+                for (int i = 0; i < n; i++) {
+                    postings[f][i] = postings(leaf, fields.get(f).stats.getField(), uniqueTerms.get(i),
+                            PostingsEnum.FREQS);
+                    if (postings[f][i] != null) postings[f][i].nextDoc();
+                }
+            }
+            Bits liveDocs = leaf.reader().getLiveDocs();
+
+            while (nonEssential < n) {
+                //Next document containing any essential query term in any field
+                int doc = NO_MORE_DOCS;
+                for (PostingsEnum[] fieldPostings : postings) {
+                    for (int i = 0; i < n; i++) {
+                        if (essential[i] && fieldPostings[i] != null) doc = Math.min(doc, fieldPostings[i].docID());
+                    }
+                }
+                if (doc == NO_MORE_DOCS) break;
+                if (++visited % DEADLINE_CHECK_INTERVAL == 0 && pastDeadline()) {
+                    outOfTime = true;
+                    break;
+                }
+
+                //Jump every postings list straight to the next document the filter accepts
+                if (filterIt != null) {
+                    int allowed = filterIt.docID() < doc ? filterIt.advance(doc) : filterIt.docID();
+                    if (allowed == NO_MORE_DOCS) break;
+                    if (allowed > doc) {
+                        for (PostingsEnum[] fieldPostings : postings) {
+                            for (PostingsEnum p : fieldPostings) {
+                                if (p != null && p.docID() < allowed) p.advance(allowed);
+                            }
+                        }
+                        continue;
+                    }
+                }
+
+                for (int f = 0; f < numFields; f++) {
+                    for (int i = 0; i < n; i++) {
+                        if (!essential[i]) continue;
+                        PostingsEnum p = postings[f][i];
+                        if (p != null && p.docID() == doc) {
+                            tfs[f][i] = p.freq();
+                            p.nextDoc();
+                        } else {
+                            tfs[f][i] = 0;
+                        }
+                    }
+                }
+
+                if (liveDocs != null && !liveDocs.get(doc)) continue;
+
+                int globalDoc = leaf.docBase + doc;
+                if (!meetsRequired(globalDoc, requiredFeatures)) continue;
+
+                int totalLength = 0;
+                for (int f = 0; f < numFields; f++) {
+                    docLengths[f] = fields.get(f).stats.docLength(globalDoc);
+                    totalLength += docLengths[f];
+                }
+                if (totalLength == 0) continue;
+
+                if (facets != null) {
+                    facets.collect(doc);
+                }
+
+                for (int i = 0; i < n; i++) {
+                    if (essential[i]) termScores[i] = termScore(i, tfs, docLengths, termWeights);
+                }
+
+                //Essential terms scored, the rest at their upper bound: give up before touching the
+                //non-essential postings when even that cannot beat the k-th score
+                if (nonEssential > 0) {
+                    double bound = baseBound;
+                    for (int i = 0; i < n; i++) {
+                        if (essential[i]) bound += termCounts[i] * termScores[i] - termAbsentBounds[i];
+                        else bound += termGains[i];
+                    }
+                    if (cannotEnter(bound, threshold)) continue;
+
+                    for (int f = 0; f < numFields; f++) {
+                        for (int i = 0; i < n; i++) {
+                            if (essential[i]) continue;
+                            PostingsEnum p = postings[f][i];
+                            if (p != null && p.docID() < doc) p.advance(doc);
+                            tfs[f][i] = p != null && p.docID() == doc ? p.freq() : 0;
+                        }
+                    }
+                    for (int i = 0; i < n; i++) {
+                        if (!essential[i]) termScores[i] = termScore(i, tfs, docLengths, termWeights);
+                    }
+                }
+
+                double score = 0.0;
+                for (int j = 0; j < queryTerms.length; j++) {
+                    score += termWeight * termScores[termIndex[j]];
+                }
+                for (int x = 0; x < expansionIndex.length; x++) {
+                    score += expansionWeights[x] * termScores[expansionIndex[x]];
+                }
+                score += boosts.getOrDefault(globalDoc, 0.0);
+
+                //Price from doc values, documents without one sort last
+                long sortValue = 0;
+                if (prices != null) {
+                    long missing = sort == SortOrder.PRICE_ASC ? Long.MAX_VALUE : Long.MIN_VALUE;
+                    sortValue = prices.advanceExact(doc) ? prices.longValue() : missing;
+                }
+
+                //Documents indexed without a group (older index) stay on their own
+                long group = dupGroups != null && dupGroups.advanceExact(doc) ? dupGroups.longValue() : -1L - globalDoc;
+                topK.offer(new ScoredDoc(globalDoc, score, sortValue), group);
+
+                //Raise the threshold and move low-gain terms out of the essential set
+                if (prune && topK.isFull() && topK.worst().score() > threshold) {
+                    threshold = topK.worst().score();
+                    double bound = baseBound;
+                    nonEssential = 0;
+                    for (int i : byGain) {
+                        bound += termGains[i];
+                        if (!cannotEnter(bound, threshold)) break;
+                        essential[i] = false;
+                        nonEssential++;
+                    }
+                }
+            }
+        }
+
+        return topK.sorted();
+    }
+
+    //Occurrences of every weighted phrase/proximity feature of the query in this index and the documents
+    //containing it, added into the primary field's statistics for a search over several shards to sum
+    public void featureStats(ParsedQuery query, ShardStats.FieldStats into) throws IOException {
+        this.deadline = NO_DEADLINE;
+        this.partial = false;
+        for (Feature feature : buildFeatures(query)) {
+            if (feature.weight <= 0) continue;
+            Map<Integer, Integer> freqs = featureFreqs(feature);
+            long collectionFreq = 0;
+            for (int freq : freqs.values()) collectionFreq += freq;
+            String key = featureKey(feature);
+            into.getFeatureFreqs().merge(key, collectionFreq, Long::sum);
+            into.getFeatureDocFreqs().merge(key, freqs.size(), Integer::sum);
+        }
+    }
+
+    //True when the last topDocs call ran out of time and returned the best documents it had seen
+    public boolean isPartial() {
+        return partial;
+    }
+
+    private boolean pastDeadline() {
+        if (deadline != NO_DEADLINE && System.nanoTime() - deadline > 0) {
+            partial = true;
+        }
+        return partial;
+    }
+
+    //Score of unique term i in the current document: model applied to the weighted sum of its field scores
+    private double termScore(int i, int[][] tfs, int[] docLengths, double[][] termWeights) {
+        double weightedFieldScore = 0.0;
+        for (int f = 0; f < fields.size(); f++) {
+            ScoringField field = fields.get(f);
+            weightedFieldScore += field.weight
+                    * model.fieldScore(tfs[f][i], docLengths[f], termWeights[f][i], field.stats, field.mu);
+        }
+        return model.termScore(weightedFieldScore);
+    }
+
+    //Documents are visited in doc id order and ties go to the lower id, so a later document has to score
+    //strictly above the k-th. The margin keeps rounding in the bound sums from ever pruning a real entrant
+    private static boolean cannotEnter(double bound, double threshold) {
+        return bound + 1e-9 * (1 + Math.abs(threshold)) <= threshold;
+    }
+
+    //Min-heap of the best k so far, worst on top. With collapse it holds at most one document per
+    //near-duplicate group, replaced when a better one of the same group turns up, so at any point it is
+    //the top k of the per-group best documents seen so far and the k-th score only ever rises
+    private static class TopK {
+        final int k;
+        final Comparator<ScoredDoc> order;
+        final PriorityQueue<ScoredDoc> heap;
+        final Map<Long, ScoredDoc> byGroup;
+        final Map<Integer, Long> groupOf;
+
+        TopK(int k, Comparator<ScoredDoc> order, boolean collapse) {
+            this.k = k;
+            this.order = order;
+            this.heap = new PriorityQueue<>(k, order.reversed());
+            this.byGroup = collapse ? new HashMap<>() : null;
+            this.groupOf = collapse ? new HashMap<>() : null;
+        }
+
+        void offer(ScoredDoc candidate, long group) {
+            if (byGroup != null) {
+                ScoredDoc current = byGroup.get(group);
+                if (current != null) {
+                    if (order.compare(candidate, current) < 0) {
+                        heap.remove(current);
+                        groupOf.remove(current.docId());
+                        add(candidate, group);
+                    }
+                    return;
+                }
+            }
+
+            if (heap.size() < k) {
+                add(candidate, group);
+            } else if (order.compare(candidate, heap.peek()) < 0) {
+                ScoredDoc evicted = heap.poll();
+                if (byGroup != null) byGroup.remove(groupOf.remove(evicted.docId()));
+                add(candidate, group);
+            }
+        }
+
+        private void add(ScoredDoc candidate, long group) {
+            heap.add(candidate);
+            if (byGroup != null) {
+                byGroup.put(group, candidate);
+                groupOf.put(candidate.docId(), group);
+            }
+        }
+
+        boolean isFull() {
+            return heap.size() == k;
+        }
+
+        ScoredDoc worst() {
+            return heap.peek();
+        }
+
+        List<ScoredDoc> sorted() {
+            List<ScoredDoc> results = new ArrayList<>(heap);
+            results.sort(order);
+            return results;
+        }
+    }
+    // ====================================== //
+
+    //Quoted phrases are required and ordered, adjacent query terms add an optional proximity boost
+    private List<Feature> buildFeatures(ParsedQuery query) {
+        List<Feature> features = new ArrayList<>();
+        if (!stats.hasPositions()) {
+            return features;
+        }
+
+        for (String[] phrase : query.getPhrases()) {
+            features.add(new Feature(phrase, true, true, phraseWeight));
+        }
+
+        if (proximityWeight > 0) {
+            String[] terms = query.getTerms();
+            for (int j = 0; j + 1 < terms.length && features.size() < MAX_PROXIMITY_PAIRS; j++) {
+                if (terms[j].equals(terms[j + 1])) continue;
+                features.add(new Feature(new String[]{terms[j], terms[j + 1]}, false, false, proximityWeight));
+            }
+        }
+        return features;
+    }
+
+    //Phrases as quoted stems, proximity pairs with their window, the same on every shard
+    private String featureKey(Feature feature) {
+        String terms = String.join(" ", feature.terms);
+        return feature.ordered ? "\"" + terms + "\"" : terms + "~" + proximityWindow;
+    }
+
+    //Per-document occurrences of a feature, positions are read only inside the conjunction
+    private Map<Integer, Integer> featureFreqs(Feature feature) throws IOException {
+        Map<Integer, Integer> freqs = new HashMap<>();
+        int n = feature.terms.length;
+        int visited = 0;
+
+        for (LeafReaderContext leaf : reader.leaves()) {
+            PostingsEnum[] postings = new PostingsEnum[n];
+            boolean allPresent = true;
+            for (int i = 0; i < n && allPresent; i++) {
+                postings[i] = postings(leaf, stats.getField(), feature.terms[i], PostingsEnum.POSITIONS);
+                allPresent = postings[i] != null;
+            }
+            if (!allPresent) continue;
+
+            Bits liveDocs = leaf.reader().getLiveDocs();
+            int doc = postings[0].nextDoc();
+
+            //Leapfrog intersection driven by the first term
+            while (doc != NO_MORE_DOCS) {
+                if (++visited % DEADLINE_CHECK_INTERVAL == 0 && pastDeadline()) return freqs;
+                int target = doc;
+                for (int i = 1; i < n && target == doc; i++) {
+                    int other = postings[i].docID() < doc ? postings[i].advance(doc) : postings[i].docID();
+                    if (other != doc) target = other;
+                }
+
+                if (target != doc) {
+                    doc = target == NO_MORE_DOCS ? NO_MORE_DOCS : postings[0].advance(target);
+                    continue;
+                }
+
+                if (liveDocs == null || liveDocs.get(doc)) {
+                    int[][] positions = new int[n][];
+                    for (int i = 0; i < n; i++) {
+                        positions[i] = readPositions(postings[i]);
+                    }
+
+                    int freq = feature.ordered
+                            ? orderedMatches(positions)
+                            : windowMatches(positions[0], positions[1], proximityWindow);
+                    if (freq > 0) {
+                        freqs.put(leaf.docBase + doc, freq);
+                    }
+                }
+                doc = postings[0].nextDoc();
+            }
+        }
+        return freqs;
+    }
+
+    private static boolean meetsRequired(int docId, List<Map<Integer, Integer>> requiredFeatures) {
+        for (Map<Integer, Integer> freqs : requiredFeatures) {
+            if (!freqs.containsKey(docId)) return false;
+        }
+        return true;
+    }
+
+    //Count start positions where every phrase term follows at consecutive positions
+    private static int orderedMatches(int[][] positions) {
+        int count = 0;
+        for (int start : positions[0]) {
+            boolean match = true;
+            for (int i = 1; i < positions.length && match; i++) {
+                match = Arrays.binarySearch(positions[i], start + i) >= 0;
+            }
+            if (match) count++;
+        }
+        return count;
+    }
+
+    //Count occurrences of the first term with the second term less than window positions away
+    private static int windowMatches(int[] first, int[] second, int window) {
+        int count = 0;
+        int j = 0;
+        for (int pos : first) {
+            while (j < second.length && second[j] <= pos - window) j++;
+            if (j < second.length && second[j] < pos + window) count++;
+        }
+        return count;
+    }
+
+    private static int[] readPositions(PostingsEnum postings) throws IOException {
+        int[] positions = new int[postings.freq()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = postings.nextPosition();
+        }
+        return positions;
+    }
+
+    private static PostingsEnum postings(LeafReaderContext leaf, String field, String term, int flags)
+            throws IOException {
+        Terms terms = leaf.reader().terms(field);
+        if (terms == null) return null;
+
+        TermsEnum termsEnum = terms.iterator();
+        if (!termsEnum.seekExact(new BytesRef(term))) return null;
+        return termsEnum.postings(null, flags);
+    }
+}
@@ -0,0 +1,50 @@
+package com.itchsearch.service;
+
+import java.io.IOException;
+import java.util.List;
+
+//Scores how well one query term matches a document from its per-field term frequencies.
+//Every model reads the same CollectionStats and is driven by the same PostingsScorer traversal,
+//only the arithmetic per posting differs.
+public interface RankingModel {
+
+    String DIRICHLET = "dirichlet";
+    String JELINEK_MERCER = "jm";
+    String TWO_STAGE = "two-stage";
+    String BM25 = "bm25";
+
+    List<String> NAMES = List.of(DIRICHLET, JELINEK_MERCER, TWO_STAGE, BM25);
+
+    String getName();
+
+    //Weight of a term in one field, computed once per query (collection probability or idf)
+    double termWeight(CollectionStats stats, String term) throws IOException;
+
+    //Score of a term in one field of a document: term frequency, field length, the field's term weight
+    //and the field's Dirichlet prior
+    double fieldScore(int tf, int docLength, double termWeight, CollectionStats stats, double mu);
+
+    //Largest fieldScore over every document whose field contains the term, used by dynamic pruning.
+    //Exact for models that rise with tf and fall with length, which all of them do: documents without
+    //the term likewise never score above fieldScore(0, 0, ...)
+    default double fieldScoreBound(TermBound bound, double termWeight, CollectionStats stats, double mu) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int p = 0; p < bound.size(); p++) {
+            max = Math.max(max, fieldScore(bound.tfs()[p], bound.lengths()[p], termWeight, stats, mu));
+        }
+        return max;
+    }
+
+    //Score of one query term from the mixture-weighted sum of its field scores, non-decreasing
+    double termScore(double weightedFieldScore);
+
+    //Boost of a phrase or proximity feature found freq times in a document, weight is its share of one query
+    //term's score. The feature occurs collectionFreq times in documentFreq of the collection's docCount
+    //documents, collectionLength positions in all. Language models add the log ratio of the feature's rate in
+    //the document to its Dirichlet-smoothed background rate, the same log space their term scores are in
+    default double featureBoost(double weight, int freq, long collectionFreq, int documentFreq,
+                                long collectionLength, int docCount, double mu) {
+        double background = mu * collectionFreq / collectionLength;
+        return weight * Math.log(1 + freq / background);
+    }
+}
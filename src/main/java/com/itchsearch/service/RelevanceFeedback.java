@@ -0,0 +1,204 @@
+package com.itchsearch.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+//RM3 pseudo-relevance feedback: the top documents of a first pass are taken as relevant, the stems they use
+//most (weighted by how well each document matches the query) are added to the query, and the expanded
+//query is scored over postings like any other. Document terms come from the stats sidecar (the most
+//frequent terms of every document, written at build time), term vectors are read only for documents
+//ingested since. Expansions are cached per stemmed query and reader version
+@Service
+public class RelevanceFeedback {
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    //First-pass documents the relevance model is estimated from
+    @Value("${itchsearch.feedback.docs:10}")
+    private int feedbackDocs;
+
+    //Expansion stems added to the query
+    @Value("${itchsearch.feedback.terms:10}")
+    private int feedbackTerms;
+
+    //Share of the original query in the expanded one (RM3 lambda), the expansion gets the rest
+    @Value("${itchsearch.feedback.original-weight:0.5}")
+    private double originalWeight;
+
+    //Expansions kept, 0 disables the cache
+    @Value("${itchsearch.feedback.cache-entries:1000}")
+    private int maxEntries;
+
+    private Map<List<Object>, ParsedQuery> entries;
+    private Counter hits;
+    private Counter misses;
+
+    @PostConstruct
+    public void init() {
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, ParsedQuery> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        if (meterRegistry != null) {
+            Gauge.builder("itchsearch.feedback.expansions.size", this, RelevanceFeedback::size)
+                    .description("Cached query expansions").register(meterRegistry);
+            hits = Counter.builder("itchsearch.feedback.expansions.requests").tag("result", "hit")
+                    .register(meterRegistry);
+            misses = Counter.builder("itchsearch.feedback.expansions.requests").tag("result", "miss")
+                    .register(meterRegistry);
+        }
+    }
+
+    public int getFeedbackDocs() {
+        return feedbackDocs;
+    }
+
+    //The stemmed query, ranking model (first-pass scores depend on it) and index version an expansion
+    //is valid for
+    public List<Object> key(ParsedQuery query, String rankingModel, long version) {
+        List<String> phrases = new ArrayList<>();
+        for (String[] phrase : query.getPhrases()) {
+            phrases.add(String.join(" ", phrase));
+        }
+        return Arrays.asList(version, rankingModel, Arrays.asList(query.getTerms()), phrases);
+    }
+
+    //Cached expansion for a key from key(), null on a miss
+    public ParsedQuery get(List<Object> key) {
+        if (maxEntries <= 0) {
+            return null;
+        }
+        ParsedQuery expanded;
+        synchronized (entries) {
+            expanded = entries.get(key);
+        }
+        Counter counter = expanded != null ? hits : misses;
+        if (counter != null) counter.increment();
+        return expanded;
+    }
+
+    public void put(List<Object> key, ParsedQuery expanded) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        synchronized (entries) {
+            entries.put(key, expanded);
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    //The query with the feedbackTerms stems of highest P(w|R) = sum over the feedback documents of
+    //P(w|D) P(Q|D), P(Q|D) from their first-pass scores (log-likelihoods) normalized over the documents.
+    //Query terms keep originalWeight of the total query weight, the expansion shares the rest by P(w|R).
+    //The query is returned unchanged when there is nothing to expand with
+    public ParsedQuery expand(ParsedQuery query, List<FeedbackDocument> documents) {
+        if (documents.isEmpty() || feedbackTerms <= 0) {
+            return query;
+        }
+
+        double maxScore = Double.NEGATIVE_INFINITY;
+        for (FeedbackDocument document : documents) {
+            maxScore = Math.max(maxScore, document.score);
+        }
+        double[] queryLikelihoods = new double[documents.size()];
+        double sum = 0.0;
+        for (int d = 0; d < documents.size(); d++) {
+            queryLikelihoods[d] = Math.exp(documents.get(d).score - maxScore);
+            sum += queryLikelihoods[d];
+        }
+
+        Map<String, Double> relevanceModel = new HashMap<>();
+        for (int d = 0; d < documents.size(); d++) {
+            FeedbackDocument document = documents.get(d);
+            if (document.length == 0) continue;
+            double weight = queryLikelihoods[d] / sum / document.length;
+            document.terms.forEach((term, tf) -> relevanceModel.merge(term, weight * tf, Double::sum));
+        }
+
+        //Min-heap of the best feedbackTerms stems so far, on equal weight the later stem is worse
+        Comparator<Map.Entry<String, Double>> order = Map.Entry.<String, Double>comparingByValue().reversed()
+                .thenComparing(Map.Entry.comparingByKey());
+        PriorityQueue<Map.Entry<String, Double>> best = new PriorityQueue<>(feedbackTerms + 1, order.reversed());
+        for (Map.Entry<String, Double> entry : relevanceModel.entrySet()) {
+            best.add(entry);
+            if (best.size() > feedbackTerms) best.poll();
+        }
+        if (best.isEmpty()) {
+            return query;
+        }
+
+        List<Map.Entry<String, Double>> selected = new ArrayList<>(best);
+        selected.sort(order);
+        double total = 0.0;
+        for (Map.Entry<String, Double> entry : selected) {
+            total += entry.getValue();
+        }
+        double expansionWeight = (1 - originalWeight) * query.getTerms().length;
+        Map<String, Double> expansion = new LinkedHashMap<>();
+        for (Map.Entry<String, Double> entry : selected) {
+            expansion.put(entry.getKey(), expansionWeight * entry.getValue() / total);
+        }
+        return new ParsedQuery(query.getTerms(), query.getPhrases(), expansion, originalWeight);
+    }
+
+    //Terms of a document from the sidecar, or from its term vector when the sidecar does not have it
+    public static Map<String, Integer> docTerms(IndexReader reader, CollectionStats stats, int docId)
+            throws IOException {
+        Map<String, Integer> terms = stats.docTerms(docId);
+        if (terms != null) {
+            return terms;
+        }
+
+        terms = new HashMap<>();
+        Terms vector = reader.termVectors().get(docId, stats.getField());
+        if (vector != null) {
+            TermsEnum termsEnum = vector.iterator();
+            BytesRef term;
+            while ((term = termsEnum.next()) != null) {
+                terms.put(term.utf8ToString(), (int) termsEnum.totalTermFreq());
+            }
+        }
+        return terms;
+    }
+
+    //First-pass hit: its CONTENT terms (docTerms) and length, and its score. Read where the document is,
+    //a coordinator gets them from its shard nodes
+    public static class FeedbackDocument {
+        private final Map<String, Integer> terms;
+        private final int length;
+        private final double score;
+
+        public FeedbackDocument(Map<String, Integer> terms, int length, double score) {
+            this.terms = terms;
+            this.length = length;
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.itchsearch.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.itchsearch.model.ShardResult;
+import com.itchsearch.model.ShardSearchRequest;
+import com.itchsearch.model.ShardStats;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+//HTTP side of a search coordinated over shard nodes: other instances of this application, each started with
+//itchsearch.index.shard set to the shard it serves. Requests to all nodes are sent at once (async) and the
+//caller joins them, so a search waits for the slowest node rather than the sum of them
+@Service
+public class RemoteShardClient {
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    //Base URLs of the shard nodes (http://host:port), empty to search the local shards
+    @Value("${itchsearch.shards.remote:}")
+    private String remote;
+
+    //How long a node may take when the search has no time budget
+    @Value("${itchsearch.shards.remote-timeout-ms:2000}")
+    private long remoteTimeoutMs;
+
+    private final List<String> urls = new ArrayList<>();
+    private HttpClient client;
+
+    @PostConstruct
+    public void init() {
+        for (String url : remote.split(",")) {
+            if (!url.isBlank()) urls.add(url.trim().replaceAll("/+$", ""));
+        }
+        if (!urls.isEmpty()) {
+            client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(2)).build();
+            System.out.println("Searching " + urls.size() + " remote shard nodes: " + urls);
+        }
+    }
+
+    public boolean isEnabled() {
+        return !urls.isEmpty();
+    }
+
+    public List<String> getUrls() {
+        return urls;
+    }
+
+    //Statistics of the query and the expansion stems (may be empty) over the node's shards
+    public CompletableFuture<ShardStats> stats(String url, String query, List<String> expansion, long timeoutMs) {
+        String uri = url + "/api/shard/stats?query=" + URLEncoder.encode(query, StandardCharsets.UTF_8);
+        if (!expansion.isEmpty()) {
+            uri += "&expansion=" + URLEncoder.encode(String.join(",", expansion), StandardCharsets.UTF_8);
+        }
+        HttpRequest request = HttpRequest.newBuilder(URI.create(uri))
+                .timeout(timeout(timeoutMs))
+                .GET()
+                .build();
+        return send(request, ShardStats.class);
+    }
+
+    //The node's merged and hydrated top hits
+    public CompletableFuture<ShardResult> search(String url, ShardSearchRequest search, long timeoutMs) {
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(search);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url + "/api/shard/search"))
+                .timeout(timeout(timeoutMs))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+        return send(request, ShardResult.class);
+    }
+
+    //The node gets the remaining budget plus a margin for the network and JSON, never less than 50 ms
+    private Duration timeout(long timeoutMs) {
+        return Duration.ofMillis(timeoutMs > 0 ? Math.max(50, timeoutMs + 50) : remoteTimeoutMs);
+    }
+
+    private <T> CompletableFuture<T> send(HttpRequest request, Class<T> type) {
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).thenApply(response -> {
+            if (response.statusCode() != 200) {
+                throw new UncheckedIOException(new IOException(request.uri() + " returned " + response.statusCode()));
+            }
+            try {
+                return objectMapper.readValue(response.body(), type);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+}
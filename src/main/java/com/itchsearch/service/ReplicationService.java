@@ -0,0 +1,496 @@
+package com.itchsearch.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.itchsearch.model.CommitPoint;
+import com.itchsearch.util.ShardRouter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+//Replica side of index replication. A replica polls the commits its primary publishes, one per shard, over
+//HTTP or straight from the primary's index directory, and copies only the files it does not have yet:
+//Lucene never rewrites a file under the same name, so a file with the same length and checksum is reused.
+//The segments file is copied last and renamed into place, so the replica's reader sees either the
+//previous commit or the complete new one. IndexManager then reopens the shard, which only opens new segments.
+//The stats sidecars published with a commit are copied before its segments file, the reopened shard maps them.
+//The suggest FSTs are copied whenever the primary's differ, SuggestService then loads them again
+@Service
+public class ReplicationService {
+
+    private static final String PENDING_PREFIX = "pending_";
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    //Primary to copy the index from: the base URL of its server (http://host:port) or the path of its
+    //data/index directory. Empty on a primary
+    @Value("${itchsearch.replication.primary:}")
+    private String primary;
+
+    //How often the primary is asked for new commits
+    @Value("${itchsearch.replication.poll-interval-ms:1000}")
+    private long pollIntervalMs;
+
+    //How long one file download may take
+    @Value("${itchsearch.replication.timeout-ms:60000}")
+    private long timeoutMs;
+
+    private HttpClient client;
+    private Path primaryPath;
+    //data/stats and data/suggest next to the primary's data/index
+    private Path primaryStatsPath;
+    private Path primarySuggestPath;
+    //Last transfer of each shard and totals since startup, for /api/replication/status
+    private final Map<Integer, Map<String, Object>> shardStatus = new TreeMap<>();
+    private long totalBytes;
+    private long totalFilesCopied;
+    private long totalFilesReused;
+    private String lastError;
+    private Counter bytesCounter;
+    private Counter copiedCounter;
+    private Counter reusedCounter;
+    private Timer copyTimer;
+    private Timer switchTimer;
+
+    @PostConstruct
+    public void init() {
+        if (!isEnabled()) {
+            return;
+        }
+        primary = primary.trim().replaceAll("/+$", "");
+        if (isHttp()) {
+            client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(2)).build();
+        } else {
+            primaryPath = Paths.get(primary).toAbsolutePath();
+            primaryStatsPath = primaryPath.resolveSibling("stats");
+            primarySuggestPath = primaryPath.resolveSibling("suggest");
+        }
+        if (meterRegistry != null) {
+            bytesCounter = Counter.builder("itchsearch.replication.bytes").baseUnit("bytes")
+                    .description("Index bytes copied from the primary").register(meterRegistry);
+            copiedCounter = Counter.builder("itchsearch.replication.files").tag("result", "copied")
+                    .register(meterRegistry);
+            reusedCounter = Counter.builder("itchsearch.replication.files").tag("result", "reused")
+                    .register(meterRegistry);
+            copyTimer = Timer.builder("itchsearch.replication.copy")
+                    .description("Time to copy the new files of a commit").register(meterRegistry);
+            switchTimer = Timer.builder("itchsearch.replication.switch")
+                    .description("Time from a copied commit to its reader being searched").register(meterRegistry);
+        }
+        System.out.println("Replicating the index from " + primary + " every " + pollIntervalMs + " ms");
+    }
+
+    //True on a replica
+    public boolean isEnabled() {
+        return !primary.isBlank();
+    }
+
+    public long getPollIntervalMs() {
+        return pollIntervalMs;
+    }
+
+    //Commits the primary publishes, one per shard it serves
+    public List<CommitPoint> commitPoints() throws IOException {
+        if (isHttp()) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(primary + "/api/replication/commits"))
+                    .timeout(Duration.ofMillis(timeoutMs))
+                    .GET()
+                    .build();
+            HttpResponse<byte[]> response = send(request, HttpResponse.BodyHandlers.ofByteArray());
+            return objectMapper.readValue(response.body(), new TypeReference<List<CommitPoint>>() {
+            });
+        }
+
+        int shardCount = 0;
+        while (Files.isDirectory(primaryPath.resolve(ShardRouter.shardName(shardCount)))) {
+            shardCount++;
+        }
+        List<CommitPoint> points = new ArrayList<>();
+        List<CommitPoint.IndexFile> suggestFiles = SuggestService.describe(primarySuggestPath);
+        for (int shard = 0; shard < Math.max(1, shardCount); shard++) {
+            try (Directory directory = new NIOFSDirectory(shardPath(primaryPath, shard, shardCount))) {
+                List<IndexCommit> commits = DirectoryReader.listCommits(directory);
+                CommitPoint point = IndexShard.describe(shard, Math.max(1, shardCount),
+                        commits.get(commits.size() - 1), shardPath(primaryStatsPath, shard, shardCount));
+                point.setSuggestFiles(suggestFiles);
+                points.add(point);
+            }
+        }
+        return points;
+    }
+
+    //Copy the files of a commit that localPath does not have, its stats sidecars into statsPath, the segments
+    //file last. Returns null when the commit is already there (missing sidecars are still copied). Older
+    //segments files are deleted so the directory's latest commit is this one, even when its generation is lower
+    //(the primary's index was rebuilt)
+    public Transfer copy(CommitPoint point, Path localPath, Path statsPath) throws IOException {
+        Files.createDirectories(localPath);
+        try (Directory local = new NIOFSDirectory(localPath);
+             Directory source = primaryPath != null
+                     ? new NIOFSDirectory(shardPath(primaryPath, point.getShard(), point.getShardCount())) : null) {
+            CommitPoint.IndexFile segments = null;
+            for (CommitPoint.IndexFile file : point.getFiles()) {
+                if (file.getName().equals(point.getSegmentsFile())) segments = file;
+            }
+            if (segments == null) {
+                throw new IOException("Commit " + point.getGeneration() + " of shard " + point.getShard()
+                        + " does not list its segments file");
+            }
+            Transfer transfer = new Transfer(point);
+            long start = System.nanoTime();
+            Path sourceStats = primaryStatsPath != null
+                    ? shardPath(primaryStatsPath, point.getShard(), point.getShardCount()) : null;
+            for (CommitPoint.IndexFile file : point.getStatsFiles()) {
+                if (hasStats(statsPath.resolve(file.getName()), point, file)) {
+                    transfer.filesReused++;
+                } else {
+                    fetchStats(sourceStats, statsPath, point, file);
+                    transfer.filesCopied++;
+                    transfer.bytes += file.getLength();
+                }
+            }
+            if (hasFile(local, segments)) {
+                if (transfer.filesCopied > 0) {
+                    System.out.println("Copied " + transfer.filesCopied + " stats sidecars of shard "
+                            + point.getShard() + " commit " + point.getGeneration() + " to " + statsPath);
+                }
+                return null;
+            }
+
+            List<String> copied = new ArrayList<>();
+            for (CommitPoint.IndexFile file : point.getFiles()) {
+                if (file == segments) continue;
+                if (hasFile(local, file)) {
+                    transfer.filesReused++;
+                } else {
+                    fetch(source, local, point, file);
+                    copied.add(file.getName());
+                    transfer.filesCopied++;
+                    transfer.bytes += file.getLength();
+                }
+            }
+            local.sync(copied);
+
+            fetch(source, local, point, segments);
+            transfer.filesCopied++;
+            transfer.bytes += segments.getLength();
+            local.sync(List.of(segments.getName()));
+            local.syncMetaData();
+            for (String name : local.listAll()) {
+                if (name.startsWith(IndexFileNames.SEGMENTS) && !name.equals(segments.getName())) {
+                    local.deleteFile(name);
+                }
+            }
+            transfer.copyNanos = System.nanoTime() - start;
+            return transfer;
+        }
+    }
+
+    //Copy the suggest FSTs published with a commit that differ from the ones in suggestPath, each under a
+    //pending name moved into place once its checksum matches. Returns how many were copied, the lookups
+    //loaded from the old files stay in memory until SuggestService loads the new ones
+    public int copySuggest(CommitPoint point, Path suggestPath) throws IOException {
+        int copied = 0;
+        long bytes = 0;
+        for (CommitPoint.IndexFile file : point.getSuggestFiles()) {
+            Path local = suggestPath.resolve(file.getName());
+            if (Files.exists(local) && Files.size(local) == file.getLength()
+                    && SuggestService.checksum(local) == file.getChecksum()) {
+                continue;
+            }
+
+            Files.createDirectories(suggestPath);
+            Path pending = suggestPath.resolve(PENDING_PREFIX + file.getName());
+            if (primarySuggestPath != null) {
+                Files.copy(primarySuggestPath.resolve(file.getName()), pending, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                HttpRequest request = HttpRequest.newBuilder(URI.create(primary + "/api/replication/suggest?name="
+                                + URLEncoder.encode(file.getName(), StandardCharsets.UTF_8)))
+                        .timeout(Duration.ofMillis(timeoutMs))
+                        .GET()
+                        .build();
+                HttpResponse<InputStream> response = send(request, HttpResponse.BodyHandlers.ofInputStream());
+                try (InputStream in = response.body()) {
+                    Files.copy(in, pending, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            if (Files.size(pending) != file.getLength() || SuggestService.crc32(pending) != file.getChecksum()) {
+                Files.delete(pending);
+                throw new IOException(file.getName() + " does not match the primary's length and checksum "
+                        + "(rebuilt during the copy?)");
+            }
+            Files.move(pending, local, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            copied++;
+            bytes += file.getLength();
+        }
+        if (copied > 0) {
+            System.out.printf("Copied %d suggest FSTs (%.2f MB) to %s%n", copied, bytes / 1e6, suggestPath);
+            synchronized (shardStatus) {
+                totalBytes += bytes;
+                totalFilesCopied += copied;
+            }
+            if (meterRegistry != null) {
+                bytesCounter.increment(bytes);
+                copiedCounter.increment(copied);
+            }
+        }
+        return copied;
+    }
+
+    //Record a transfer once the shard searches the new commit, and delete the local files it no longer
+    //references. Files still open by an older reader stay readable until it closes (POSIX), where they cannot
+    //be deleted yet they are retried after the next commit
+    public void finish(Transfer transfer, Path localPath, long switchNanos) {
+        CommitPoint point = transfer.point;
+        Set<String> referenced = new HashSet<>();
+        for (CommitPoint.IndexFile file : point.getFiles()) {
+            referenced.add(file.getName());
+        }
+        referenced.add("write.lock");
+        int deleted = 0;
+        try (Directory local = new NIOFSDirectory(localPath)) {
+            for (String name : local.listAll()) {
+                if (referenced.contains(name)) continue;
+                try {
+                    local.deleteFile(name);
+                    deleted++;
+                } catch (IOException e) {
+                    //Still open, deleted after a later commit
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not clean up " + localPath + ": " + e.getMessage());
+        }
+
+        double copyMs = transfer.copyNanos / 1e6;
+        double mbPerSecond = transfer.copyNanos > 0 ? transfer.bytes / 1e6 / (transfer.copyNanos / 1e9) : 0;
+        System.out.printf("Replicated shard %d commit %d: %d files copied (%.2f MB), %d reused, %d deleted, "
+                        + "copied in %.1f ms (%.1f MB/s), searchable %.1f ms later%n", point.getShard(),
+                point.getGeneration(), transfer.filesCopied, transfer.bytes / 1e6, transfer.filesReused, deleted,
+                copyMs, mbPerSecond, switchNanos / 1e6);
+
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("generation", point.getGeneration());
+        status.put("filesCopied", transfer.filesCopied);
+        status.put("filesReused", transfer.filesReused);
+        status.put("bytesCopied", transfer.bytes);
+        status.put("copyMs", copyMs);
+        status.put("megabytesPerSecond", mbPerSecond);
+        status.put("switchMs", switchNanos / 1e6);
+        status.put("replicatedAt", Instant.now().toString());
+        synchronized (shardStatus) {
+            shardStatus.put(point.getShard(), status);
+            totalBytes += transfer.bytes;
+            totalFilesCopied += transfer.filesCopied;
+            totalFilesReused += transfer.filesReused;
+            lastError = null;
+        }
+        if (meterRegistry != null) {
+            bytesCounter.increment(transfer.bytes);
+            copiedCounter.increment(transfer.filesCopied);
+            reusedCounter.increment(transfer.filesReused);
+            copyTimer.record(transfer.copyNanos, TimeUnit.NANOSECONDS);
+            switchTimer.record(switchNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    //Kept for the status until the next successful transfer, logged once while it repeats every poll
+    public void failed(String what, Exception e) {
+        //Connection errors of HttpClient have no message
+        String message = what + (e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+        synchronized (shardStatus) {
+            if (message.equals(lastError)) return;
+            lastError = message;
+        }
+        System.err.println("Replication from " + primary + " failed: " + message);
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("replica", isEnabled());
+        if (!isEnabled()) {
+            return status;
+        }
+        status.put("primary", primary);
+        status.put("pollIntervalMs", pollIntervalMs);
+        synchronized (shardStatus) {
+            status.put("bytesCopied", totalBytes);
+            status.put("filesCopied", totalFilesCopied);
+            status.put("filesReused", totalFilesReused);
+            status.put("shards", new TreeMap<>(shardStatus));
+            status.put("lastError", lastError);
+        }
+        return status;
+    }
+
+    //Copy one file under a pending name, check it and rename it into place
+    private void fetch(Directory source, Directory local, CommitPoint point, CommitPoint.IndexFile file)
+            throws IOException {
+        String pending = PENDING_PREFIX + file.getName();
+        try {
+            local.deleteFile(pending);
+        } catch (NoSuchFileException e) {
+            //No leftover of an interrupted copy
+        }
+        if (source != null) {
+            local.copyFrom(source, file.getName(), pending, IOContext.READONCE);
+        } else {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(primary + "/api/replication/file?shard="
+                            + point.getShard() + "&name=" + URLEncoder.encode(file.getName(), StandardCharsets.UTF_8)))
+                    .timeout(Duration.ofMillis(timeoutMs))
+                    .GET()
+                    .build();
+            HttpResponse<InputStream> response = send(request, HttpResponse.BodyHandlers.ofInputStream());
+            try (InputStream in = response.body();
+                 IndexOutput out = local.createOutput(pending, IOContext.DEFAULT)) {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    out.writeBytes(buffer, 0, read);
+                }
+            }
+        }
+        if (!hasFile(local, pending, file)) {
+            local.deleteFile(pending);
+            throw new IOException(file.getName() + " of shard " + point.getShard()
+                    + " does not match the primary's length and checksum (changed during the copy?)");
+        }
+        local.rename(pending, file.getName());
+    }
+
+    //Copy a stats sidecar under a pending name, check its header and move it over the local one, which a
+    //reader of the previous commit may still have mapped
+    private void fetchStats(Path source, Path statsPath, CommitPoint point, CommitPoint.IndexFile file)
+            throws IOException {
+        Files.createDirectories(statsPath);
+        Path pending = statsPath.resolve(PENDING_PREFIX + file.getName());
+        if (source != null) {
+            Files.copy(source.resolve(file.getName()), pending, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(primary + "/api/replication/stats?shard="
+                            + point.getShard() + "&name=" + URLEncoder.encode(file.getName(), StandardCharsets.UTF_8)))
+                    .timeout(Duration.ofMillis(timeoutMs))
+                    .GET()
+                    .build();
+            HttpResponse<InputStream> response = send(request, HttpResponse.BodyHandlers.ofInputStream());
+            try (InputStream in = response.body()) {
+                Files.copy(in, pending, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (!hasStats(pending, point, file)) {
+            Files.delete(pending);
+            throw new IOException(file.getName() + " of shard " + point.getShard()
+                    + " was not written for commit " + point.getGeneration() + " (rewritten during the copy?)");
+        }
+        Files.move(pending, statsPath.resolve(file.getName()), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    //Whether a local sidecar has the length of a published one and was written for the same commit
+    private static boolean hasStats(Path local, CommitPoint point, CommitPoint.IndexFile file) {
+        try {
+            return Files.size(local) == file.getLength()
+                    && CollectionStats.isSidecarFor(local, point.getGeneration(), (int) file.getChecksum());
+        } catch (IOException e) {
+            //Missing
+            return false;
+        }
+    }
+
+    private static boolean hasFile(Directory local, CommitPoint.IndexFile file) {
+        return hasFile(local, file.getName(), file);
+    }
+
+    //Whether a local file has the length and footer checksum of a commit file
+    private static boolean hasFile(Directory local, String name, CommitPoint.IndexFile file) {
+        try (IndexInput input = local.openInput(name, IOContext.READONCE)) {
+            return input.length() == file.getLength() && CodecUtil.retrieveChecksum(input) == file.getChecksum();
+        } catch (IOException e) {
+            //Missing, truncated or not a Lucene file
+            return false;
+        }
+    }
+
+    private <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException {
+        HttpResponse<T> response;
+        try {
+            response = client.send(request, handler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while replicating");
+        }
+        if (response.statusCode() != 200) {
+            if (response.body() instanceof InputStream in) in.close();
+            throw new IOException(request.uri() + " returned " + response.statusCode());
+        }
+        return response;
+    }
+
+    private boolean isHttp() {
+        return primary.startsWith("http://") || primary.startsWith("https://");
+    }
+
+    //Directory of a shard, data/index itself for an unsharded index
+    public static Path shardPath(Path indexPath, int shard, int shardCount) {
+        return shardCount > 1 ? indexPath.resolve(ShardRouter.shardName(shard)) : indexPath;
+    }
+
+    //Files copied for one commit of one shard
+    public static class Transfer {
+        private final CommitPoint point;
+        private int filesCopied;
+        private int filesReused;
+        private long bytes;
+        private long copyNanos;
+
+        private Transfer(CommitPoint point) {
+            this.point = point;
+        }
+
+        public CommitPoint getPoint() {
+            return point;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.itchsearch.service;
+
+import com.itchsearch.model.SortOrder;
+
+import java.util.Comparator;
+
+//Document id and score produced by the scorer, sortValue holds the price in cents when sorting by price
+public record ScoredDoc(int docId, double score, long sortValue) {
+
+    //Best first: higher score, then lower docId so ties are deterministic
+    public static final Comparator<ScoredDoc> BEST_FIRST =
+            Comparator.comparingDouble(ScoredDoc::score).reversed().thenComparingInt(ScoredDoc::docId);
+
+    public static final Comparator<ScoredDoc> CHEAPEST_FIRST =
+            Comparator.comparingLong(ScoredDoc::sortValue).thenComparing(BEST_FIRST);
+
+    public static final Comparator<ScoredDoc> PRICIEST_FIRST =
+            Comparator.comparingLong(ScoredDoc::sortValue).reversed().thenComparing(BEST_FIRST);
+
+    public static Comparator<ScoredDoc> comparator(SortOrder sort) {
+        switch (sort) {
+            case PRICE_ASC: return CHEAPEST_FIRST;
+            case PRICE_DESC: return PRICIEST_FIRST;
+            default: return BEST_FIRST;
+        }
+    }
+}
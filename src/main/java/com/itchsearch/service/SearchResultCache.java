@@ -0,0 +1,107 @@
+package com.itchsearch.service;
+
+import com.itchsearch.model.SearchOptions;
+import com.itchsearch.model.SearchResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+//LRU cache of complete search results keyed by query, options and reader version, so a new reader never
+//serves old hits. Cached searches are answered without going through the ConcurrencyLimiter, which gives
+//them priority over uncached ones under overload. Partial (timed out) results are never cached
+@Service
+public class SearchResultCache {
+
+    @Autowired
+    private IndexManager indexManager;
+
+    @Autowired
+    private RemoteShardClient remoteShards;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    //Entries kept, 0 disables the cache
+    @Value("${itchsearch.cache.result-entries:1000}")
+    private int maxEntries;
+
+    private Map<List<Object>, SearchResult> entries;
+    private Counter hits;
+    private Counter misses;
+
+    @PostConstruct
+    public void init() {
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, SearchResult> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        if (meterRegistry != null) {
+            Gauge.builder("itchsearch.cache.results.size", this, SearchResultCache::size)
+                    .description("Cached search results").register(meterRegistry);
+            hits = Counter.builder("itchsearch.cache.results.requests").tag("result", "hit").register(meterRegistry);
+            misses = Counter.builder("itchsearch.cache.results.requests").tag("result", "miss")
+                    .register(meterRegistry);
+        }
+    }
+
+    //Cached result for a key from key(), null on a miss. Callers must not modify it
+    public SearchResult get(List<Object> key) {
+        if (maxEntries <= 0 || key == null) {
+            return null;
+        }
+
+        SearchResult result;
+        synchronized (entries) {
+            result = entries.get(key);
+        }
+        Counter counter = result != null ? hits : misses;
+        if (counter != null) counter.increment();
+        return result;
+    }
+
+    public void put(List<Object> key, SearchResult result) {
+        if (maxEntries <= 0 || key == null || result.isPartial()) {
+            return;
+        }
+        synchronized (entries) {
+            entries.put(key, result);
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    //Everything that changes the hits, the time budget does not as partial results are not stored.
+    //The reader version changes with every refresh, so entries of older readers just age out.
+    //Null (not cached) when the version is unknown: no index open, or remote shard nodes searched
+    public List<Object> key(String query, int maxResults, SearchOptions options) {
+        if (remoteShards.isEnabled()) {
+            return null;
+        }
+        long version;
+        try {
+            version = indexManager.getVersion();
+        } catch (IOException e) {
+            return null;
+        }
+        return Arrays.asList(version, query, maxResults, new TreeSet<>(options.getFields()),
+                options.getMinPrice(), options.getMaxPrice(), options.getAuthor(), options.getPlatform(),
+                options.getSort(), options.getRankingModel(), options.isFacets(), options.isCollapse(), options.isFeedback());
+    }
+}
@@ -0,0 +1,185 @@
+package com.itchsearch.service;
+
+import com.itchsearch.util.TextPreprocessor;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.automaton.Automaton;
+import org.apache.lucene.util.automaton.CompiledAutomaton;
+import org.apache.lucene.util.automaton.LevenshteinAutomata;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+//"Did you mean" for misspelled queries. A query word whose stem is missing or rare in the CONTENT and
+//TITLE_STEMMED dictionaries is turned into a Levenshtein automaton and intersected with both term
+//dictionaries (Terms.intersect only walks the branches the automaton accepts, never the whole vocabulary).
+//Candidates are ranked by edit distance, then by collection frequency over both fields.
+@Service
+public class SpellingService {
+
+    private static final String[] FIELDS = {"CONTENT", "TITLE_STEMMED"};
+    //Candidates must start with the same letter, as most typos are not in the first one
+    private static final int PREFIX_LENGTH = 1;
+    //Words of a query in any script, and the ones the index can hold as a single term
+    private static final Pattern WORD = Pattern.compile("[\\p{L}\\p{N}]+");
+    private static final Pattern ASCII_WORD = Pattern.compile("[a-z0-9]+");
+
+    @Autowired
+    private IndexManager indexManager;
+
+    @Autowired
+    private SuggestService suggestService;
+
+    @Autowired
+    private TextPreprocessor preprocessor;
+
+    //Words whose stem is in fewer documents than this (in every field) are corrected
+    @Value("${itchsearch.spelling.min-doc-freq:2}")
+    private int minDocFreq;
+
+    //Shorter words are left alone, too many real words are one edit apart
+    @Value("${itchsearch.spelling.min-word-length:4}")
+    private int minWordLength;
+
+    //Words still unchecked when the budget runs out are kept as typed
+    @Value("${itchsearch.spelling.budget-ms:50}")
+    private long budgetMs;
+
+    //Query with misspelled words replaced, null when nothing needed or had a correction. Only the corrected
+    //words change, the rest of the query (quotes, other punctuation, spacing) is kept as typed
+    public String suggest(String query) {
+        if (query == null || query.isBlank()) {
+            return null;
+        }
+
+        long deadline = System.nanoTime() + budgetMs * 1_000_000;
+        StringBuilder suggestion = new StringBuilder();
+        boolean corrected = false;
+        try {
+            //Term dictionaries and frequencies of all shards at once
+            List<IndexShard> shards = indexManager.getShards();
+            DirectoryReader[] shardReaders = new DirectoryReader[shards.size()];
+            for (int i = 0; i < shardReaders.length; i++) {
+                shardReaders[i] = shards.get(i).acquire();
+            }
+            try (MultiReader reader = new MultiReader(shardReaders, false)) {
+                Matcher matcher = WORD.matcher(query);
+                int end = 0;
+                while (matcher.find()) {
+                    String typed = matcher.group();
+                    String word = typed.toLowerCase(Locale.ROOT);
+
+                    //Words with other letters than a-z are kept, the index splits them into parts anyway
+                    String correction = null;
+                    if (word.length() >= minWordLength && ASCII_WORD.matcher(word).matches()
+                            && !preprocessor.isStopword(word) && !word.chars().allMatch(Character::isDigit)
+                            && System.nanoTime() < deadline) {
+                        correction = correct(reader, word);
+                    }
+                    suggestion.append(query, end, matcher.start()).append(correction != null ? correction : typed);
+                    end = matcher.end();
+                    corrected |= correction != null;
+                }
+                suggestion.append(query, end, query.length());
+            } finally {
+                for (int i = 0; i < shardReaders.length; i++) {
+                    shards.get(i).release(shardReaders[i]);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Spelling suggestion failed: " + e.getMessage());
+            return null;
+        }
+        return corrected ? suggestion.toString() : null;
+    }
+
+    //Closest more frequent dictionary word for one query word, null if the word is known or has none
+    private String correct(IndexReader reader, String word) throws IOException {
+        String stem = preprocessor.stem(word);
+        long stemFreq = 0;
+        for (String field : FIELDS) {
+            if (reader.docFreq(new Term(field, stem)) >= minDocFreq) return null;
+            stemFreq += reader.totalTermFreq(new Term(field, stem));
+        }
+        if (stem.length() <= PREFIX_LENGTH) {
+            return null;
+        }
+
+        //Damerau-Levenshtein automaton (transpositions count as one edit), 2 edits is Lucene's maximum
+        int maxEdits = stem.length() <= 5 ? 1 : LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE;
+        Automaton automaton = new LevenshteinAutomata(stem.substring(PREFIX_LENGTH), true)
+                .toAutomaton(maxEdits, stem.substring(0, PREFIX_LENGTH));
+        CompiledAutomaton compiled = new CompiledAutomaton(automaton, true, false);
+
+        Map<String, Long> candidates = new HashMap<>();
+        for (String field : FIELDS) {
+            Terms terms = MultiTerms.getTerms(reader, field);
+            if (terms == null) continue;
+            TermsEnum termsEnum = compiled.getTermsEnum(terms);
+            BytesRef term;
+            while ((term = termsEnum.next()) != null) {
+                candidates.merge(term.utf8ToString(), termsEnum.totalTermFreq(), Long::sum);
+            }
+        }
+
+        String best = null;
+        int bestDistance = Integer.MAX_VALUE;
+        long bestFreq = stemFreq;
+        for (Map.Entry<String, Long> candidate : candidates.entrySet()) {
+            if (candidate.getKey().equals(stem)) continue;
+            int distance = editDistance(stem, candidate.getKey());
+            //On equal distance and frequency the alphabetically first term wins, not the HashMap order
+            if (distance < bestDistance && candidate.getValue() > stemFreq
+                    || distance == bestDistance && (candidate.getValue() > bestFreq
+                    || candidate.getValue() == bestFreq && best != null && candidate.getKey().compareTo(best) < 0)) {
+                best = candidate.getKey();
+                bestDistance = distance;
+                bestFreq = candidate.getValue();
+            }
+        }
+        return best == null ? null : surfaceForm(best);
+    }
+
+    //Stems are not always words ("puzzl"), show the vocabulary word the suggest dictionary keeps for that stem.
+    //Stemming can rewrite the ending ("militari"), so shorter prefixes of the stem are tried when the full one
+    //finds nothing
+    private String surfaceForm(String stem) {
+        for (int length = stem.length(); length >= Math.max(PREFIX_LENGTH + 1, stem.length() - 2); length--) {
+            for (String word : suggestService.suggestTerms(stem.substring(0, length), 10)) {
+                if (preprocessor.stem(word).equals(stem)) return word;
+            }
+        }
+        return stem;
+    }
+
+    //Optimal string alignment distance, same edits the automaton allows
+    private static int editDistance(String a, String b) {
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) d[i][0] = i;
+        for (int j = 0; j <= b.length(); j++) d[0][j] = j;
+        for (int i = 1; i <= a.length(); i++) {
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1), d[i - 1][j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    d[i][j] = Math.min(d[i][j], d[i - 2][j - 2] + 1);
+                }
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+}
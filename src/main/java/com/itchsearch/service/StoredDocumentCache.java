@@ -0,0 +1,159 @@
+package com.itchsearch.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.StoredFields;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+//LRU cache of the stored fields a hit is hydrated from, so the popular games that keep reaching the top
+//of different queries are not decompressed again for every page. Entries are keyed by segment and doc id:
+//a segment never changes, so they stay valid across refreshes that keep the segment, and are dropped when
+//it closes. Eviction is by estimated heap bytes rather than entries, descriptions vary a lot in length.
+//Snippets and highlighting depend on the query and are still built per search
+@Service
+public class StoredDocumentCache {
+
+    //Every field a Game can be built from, loaded together so one entry serves any field selection
+    private static final Set<String> FIELDS = Set.of("DOCNO", "TITLE", "AUTHOR", "PRICE", "URL",
+            "CONTENT_ORIGINAL");
+    //Estimated bytes of an entry besides its strings: map entry, key, Document and field objects
+    private static final long ENTRY_OVERHEAD = 400;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    //Heap the cached documents may take, 0 disables the cache
+    @Value("${itchsearch.cache.document-megabytes:32}")
+    private long maxMegabytes;
+
+    private long maxBytes;
+    private long bytes;
+    private Map<List<Object>, Entry> entries;
+    //Segments whose close already removes their entries
+    private final Set<Object> watchedSegments = new HashSet<>();
+    private Counter hits;
+    private Counter misses;
+    private Counter evictions;
+
+    @PostConstruct
+    public void init() {
+        maxBytes = maxMegabytes * 1024 * 1024;
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+        if (meterRegistry != null) {
+            Gauge.builder("itchsearch.cache.documents.size", this, StoredDocumentCache::size)
+                    .description("Cached stored documents").register(meterRegistry);
+            Gauge.builder("itchsearch.cache.documents.bytes", this, StoredDocumentCache::bytes)
+                    .description("Estimated heap of the cached stored documents").baseUnit("bytes")
+                    .register(meterRegistry);
+            hits = Counter.builder("itchsearch.cache.documents.requests").tag("result", "hit").register(meterRegistry);
+            misses = Counter.builder("itchsearch.cache.documents.requests").tag("result", "miss")
+                    .register(meterRegistry);
+            evictions = Counter.builder("itchsearch.cache.documents.evictions").register(meterRegistry);
+        }
+    }
+
+    //Stored fields of a document of an acquired reader, from the cache or read with storedFields (of the same
+    //reader) and cached. Only the requested fields are read when the cache is disabled.
+    //Callers must not modify the document
+    public Document get(IndexReader reader, StoredFields storedFields, int docId, Set<String> requested)
+            throws IOException {
+        if (maxBytes <= 0) {
+            return storedFields.document(docId, requested);
+        }
+        List<LeafReaderContext> leaves = reader.leaves();
+        LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docId, leaves));
+        IndexReader.CacheHelper cacheHelper = leaf.reader().getCoreCacheHelper();
+        if (cacheHelper == null) {
+            return storedFields.document(docId, requested);
+        }
+        List<Object> key = List.of(cacheHelper.getKey(), docId - leaf.docBase);
+
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry != null) {
+            if (hits != null) hits.increment();
+            return entry.document;
+        }
+        if (misses != null) misses.increment();
+
+        Document document = storedFields.document(docId, FIELDS);
+        put(key, cacheHelper, new Entry(document, weigh(document)));
+        return document;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    private void put(List<Object> key, IndexReader.CacheHelper cacheHelper, Entry entry) {
+        synchronized (this) {
+            if (entry.bytes > maxBytes) return;
+            Entry previous = entries.put(key, entry);
+            bytes += entry.bytes - (previous != null ? previous.bytes : 0);
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().bytes;
+                eldest.remove();
+                if (evictions != null) evictions.increment();
+            }
+            if (!watchedSegments.add(cacheHelper.getKey())) return;
+        }
+        cacheHelper.addClosedListener(this::removeSegment);
+    }
+
+    //Drop the entries of a closed segment (merged away or deleted by a replica)
+    private synchronized void removeSegment(IndexReader.CacheKey segment) {
+        watchedSegments.remove(segment);
+        Iterator<Map.Entry<List<Object>, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<List<Object>, Entry> entry = iterator.next();
+            if (entry.getKey().get(0) == segment) {
+                bytes -= entry.getValue().bytes;
+                iterator.remove();
+            }
+        }
+    }
+
+    //Strings are UTF-16 at worst (2 bytes per char) plus their object headers
+    private static long weigh(Document document) {
+        long weight = ENTRY_OVERHEAD;
+        for (IndexableField field : document.getFields()) {
+            String value = field.stringValue();
+            weight += 64 + (value != null ? 2L * value.length() : 0);
+        }
+        return weight;
+    }
+
+    private static class Entry {
+        private final Document document;
+        private final long bytes;
+
+        private Entry(Document document, long bytes) {
+            this.document = document;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.itchsearch.service;
+
+import com.itchsearch.model.CommitPoint;
+import com.itchsearch.util.SuggestDictionaryBuilder;
+import jakarta.annotation.PostConstruct;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.search.suggest.fst.WFSTCompletionLookup;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+//Prefix autocomplete over the FSTs written by IndexBuilderMain, independent of the scoring path
+@Service
+public class SuggestService {
+
+    private static final String SUGGEST_DIR = "data/suggest";
+    private static final String[] FST_FILES = {SuggestDictionaryBuilder.TITLES_FILE, SuggestDictionaryBuilder.TERMS_FILE};
+
+    //CRC32 of each FST by path, with the length and modification time it was computed for, so replicas
+    //polling every second only read a file again after it changed
+    private static final Map<Path, long[]> CHECKSUMS = new ConcurrentHashMap<>();
+
+    private volatile Lookup titleLookup;
+    private volatile Lookup termLookup;
+
+    //Load both FSTs at startup, suggestions stay empty if the index was built without them. A replica loads
+    //them again after copying new ones from its primary
+    @PostConstruct
+    public void load() {
+        Path suggestPath = getSuggestPath();
+        titleLookup = loadLookup(suggestPath.resolve(SuggestDictionaryBuilder.TITLES_FILE));
+        termLookup = loadLookup(suggestPath.resolve(SuggestDictionaryBuilder.TERMS_FILE));
+    }
+
+    public Path getSuggestPath() {
+        return Paths.get(System.getProperty("user.dir")).resolve(SUGGEST_DIR);
+    }
+
+    //FST published for replicas, NoSuchFileException for any other name
+    public Path publishedFile(String name) throws IOException {
+        for (String file : FST_FILES) {
+            if (file.equals(name)) return getSuggestPath().resolve(file);
+        }
+        throw new NoSuchFileException(name + " is not a suggest FST");
+    }
+
+    //The FSTs in suggestPath with their length and CRC32, published with every commit point. They are only
+    //rewritten by IndexBuilderMain, so a replica copies them again after a rebuild of its primary
+    public static List<CommitPoint.IndexFile> describe(Path suggestPath) throws IOException {
+        List<CommitPoint.IndexFile> files = new ArrayList<>();
+        for (String name : FST_FILES) {
+            Path path = suggestPath.resolve(name);
+            if (!Files.exists(path)) continue;
+            CommitPoint.IndexFile file = new CommitPoint.IndexFile();
+            file.setName(name);
+            file.setLength(Files.size(path));
+            file.setChecksum(checksum(path));
+            files.add(file);
+        }
+        return files;
+    }
+
+    //CRC32 of a file, cached while its length and modification time stay the same
+    public static long checksum(Path file) throws IOException {
+        long length = Files.size(file);
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        long[] cached = CHECKSUMS.get(file);
+        if (cached != null && cached[0] == length && cached[1] == modified) {
+            return cached[2];
+        }
+        long checksum = crc32(file);
+        CHECKSUMS.put(file, new long[]{length, modified, checksum});
+        return checksum;
+    }
+
+    //CRC32 of a file, read in full
+    public static long crc32(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    //Most popular titles starting with the prefix
+    public List<String> suggestTitles(String prefix, int count) {
+        return lookup(titleLookup, prefix, count);
+    }
+
+    //Most frequent vocabulary words starting with the prefix
+    public List<String> suggestTerms(String prefix, int count) {
+        return lookup(termLookup, prefix, count);
+    }
+
+    private List<String> lookup(Lookup lookup, String prefix, int count) {
+        if (lookup == null || prefix == null || prefix.isBlank()) {
+            return Collections.emptyList();
+        }
+
+        List<String> suggestions = new ArrayList<>();
+        try {
+            String key = prefix.stripLeading().toLowerCase(Locale.ROOT);
+            for (Lookup.LookupResult result : lookup.lookup(key, false, count)) {
+                //Title keys carry the display spelling after the separator
+                String suggestion = result.key.toString();
+                int sep = suggestion.indexOf(SuggestDictionaryBuilder.DISPLAY_SEPARATOR);
+                suggestions.add(sep >= 0 ? suggestion.substring(sep + 1) : suggestion);
+            }
+        } catch (IOException e) {
+            System.err.println("Suggest lookup failed: " + e.getMessage());
+        }
+        return suggestions;
+    }
+
+    private Lookup loadLookup(Path file) {
+        if (!Files.exists(file)) {
+            System.err.println("Warning: " + file + " not found, run IndexBuilderMain to enable suggestions");
+            return null;
+        }
+
+        try {
+            WFSTCompletionLookup lookup = new WFSTCompletionLookup(null, null);
+            lookup.load(Files.newInputStream(file));
+            return lookup;
+        } catch (IOException e) {
+            System.err.println("Error loading " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+}
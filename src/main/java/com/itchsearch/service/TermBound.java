@@ -0,0 +1,18 @@
+package com.itchsearch.service;
+
+//Score bound of a term in one field: the (tf, length) pairs of its postings that no other posting beats
+//with both a higher tf and a shorter field, highest tf first. Every RankingModel rises with tf and falls
+//with length, so its largest field score over the term's documents is reached at one of these points.
+public record TermBound(int[] tfs, int[] lengths) {
+
+    //Term does not occur in the field
+    public static final TermBound ABSENT = new TermBound(new int[0], new int[0]);
+
+    public boolean isAbsent() {
+        return tfs.length == 0;
+    }
+
+    public int size() {
+        return tfs.length;
+    }
+}
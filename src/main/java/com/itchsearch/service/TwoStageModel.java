@@ -0,0 +1,34 @@
+package com.itchsearch.service;
+
+import java.io.IOException;
+
+//Two-stage smoothing (Zhai & Lafferty): Dirichlet estimate of the document model, then interpolated
+//with the collection model for query noise: p(t|D) = (1 - lambda) * (tf + mu * p(t|C)) / (|D| + mu) + lambda * p(t|C)
+public class TwoStageModel implements RankingModel {
+
+    private final double lambda;
+
+    public TwoStageModel(double lambda) {
+        this.lambda = lambda;
+    }
+
+    @Override
+    public String getName() {
+        return TWO_STAGE;
+    }
+
+    @Override
+    public double termWeight(CollectionStats stats, String term) throws IOException {
+        return DirichletModel.collectionProbability(stats, term);
+    }
+
+    @Override
+    public double fieldScore(int tf, int docLength, double collectionProb, CollectionStats stats, double mu) {
+        return (1 - lambda) * (tf + mu * collectionProb) / (docLength + mu) + lambda * collectionProb;
+    }
+
+    @Override
+    public double termScore(double probTermInDoc) {
+        return probTermInDoc > 0 ? Math.log(probTermInDoc) : 0.0;
+    }
+}
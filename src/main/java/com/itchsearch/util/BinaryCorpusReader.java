@@ -0,0 +1,143 @@
+package com.itchsearch.util;
+
+import com.itchsearch.model.GameDocument;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+//Reads a binary corpus from BinaryCorpusWriter through memory-mapped windows of the file, one length-prefixed
+//document at a time. No tags or lines to scan, each field is decoded straight from its UTF-8 bytes
+public class BinaryCorpusReader implements CorpusReader {
+
+    //Largest window mapped at once, a mapping is limited to 2 GB
+    private static final long WINDOW_BYTES = 1L << 30;
+
+    private final FileChannel channel;
+    private final long size;
+    private final long count;
+    private final boolean analyzed;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private byte[] body = new byte[1 << 16];
+    private int bodyOffset;
+    private long read;
+    private String stemmedTitle;
+    private String stemmedText;
+
+    //Stored analysis is used only when written with preprocessor's stopwords, otherwise a warning is printed
+    //and the documents are preprocessed again
+    public BinaryCorpusReader(Path file, TextPreprocessor preprocessor) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        size = channel.size();
+        if (size < BinaryCorpusWriter.HEADER_BYTES) {
+            channel.close();
+            throw new IOException("Binary corpus " + file + " has no header");
+        }
+        map(0);
+        int flags = window.getInt(8);
+        int fingerprint = window.getInt(12);
+        count = window.getLong(BinaryCorpusWriter.COUNT_OFFSET);
+        if (window.getInt(0) != BinaryCorpusWriter.MAGIC || window.getInt(4) != BinaryCorpusWriter.VERSION) {
+            channel.close();
+            throw new IOException("Binary corpus " + file + " has an unknown format, convert it again");
+        }
+        //The writer sets the count only after the last document, a conversion that failed leaves it at 0
+        if (count == 0 && size > BinaryCorpusWriter.HEADER_BYTES) {
+            channel.close();
+            throw new IOException("Binary corpus " + file + " was not finished, convert it again");
+        }
+
+        boolean stored = (flags & BinaryCorpusWriter.FLAG_ANALYZED) != 0;
+        analyzed = stored && preprocessor != null && fingerprint == preprocessor.stopwordFingerprint();
+        if (stored && !analyzed) {
+            System.err.println("Warning: analysis stored in " + file
+                    + " was written with other stopwords, preprocessing documents again");
+        }
+        window.position(BinaryCorpusWriter.HEADER_BYTES);
+    }
+
+    //Documents in the corpus
+    public long getCount() {
+        return count;
+    }
+
+    //Whether stemmedTitle and stemmedText come from the file
+    public boolean isAnalyzed() {
+        return analyzed;
+    }
+
+    @Override
+    public GameDocument nextDocument() throws IOException {
+        long position = windowStart + window.position();
+        if (position >= size) {
+            if (read != count) {
+                throw new IOException("Binary corpus ends after " + read + " of " + count + " documents");
+            }
+            return null;
+        }
+
+        if (read == count) {
+            throw new IOException("Binary corpus has data after its " + count + " documents");
+        }
+
+        if (window.remaining() < 4) map(position);
+        int length = window.getInt();
+        if (window.remaining() < length) {
+            map(position);
+            window.position(4);
+        }
+        if (length > window.remaining()) {
+            throw new IOException("Binary corpus is truncated at document " + read);
+        }
+        if (body.length < length) body = new byte[Math.max(length, body.length * 2)];
+        window.get(body, 0, length);
+
+        bodyOffset = 0;
+        String docno = readString();
+        String title = readString();
+        String author = readString();
+        String url = readString();
+        String price = readString();
+        String text = readString();
+        if (analyzed) {
+            stemmedTitle = readString();
+            stemmedText = readString();
+        }
+        read++;
+        return new GameDocument(docno, title, author, url, text, price);
+    }
+
+    @Override
+    public String stemmedTitle() {
+        return analyzed ? stemmedTitle : null;
+    }
+
+    @Override
+    public String stemmedText() {
+        return analyzed ? stemmedText : null;
+    }
+
+    //Field at bodyOffset: big-endian length, then UTF-8 bytes
+    private String readString() {
+        int length = ((body[bodyOffset] & 0xFF) << 24) | ((body[bodyOffset + 1] & 0xFF) << 16)
+                | ((body[bodyOffset + 2] & 0xFF) << 8) | (body[bodyOffset + 3] & 0xFF);
+        String value = new String(body, bodyOffset + 4, length, StandardCharsets.UTF_8);
+        bodyOffset += 4 + length;
+        return value;
+    }
+
+    //Map the window starting at a file position, the previous window is released by the GC
+    private void map(long start) throws IOException {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_BYTES, size - start));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
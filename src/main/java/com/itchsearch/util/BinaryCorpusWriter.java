@@ -0,0 +1,93 @@
+package com.itchsearch.util;
+
+import com.itchsearch.model.GameDocument;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+//Writes games in the binary corpus format read by BinaryCorpusReader, so rebuilds skip TRECTEXT parsing.
+//Header: magic, version, flags, stopword fingerprint, document count (patched in by finish).
+//Each document is its body length followed by length-prefixed UTF-8 fields: docno, title, author, url,
+//price, text, and with ANALYZED the stemmed title and text from TextPreprocessor
+public class BinaryCorpusWriter implements AutoCloseable {
+
+    static final int MAGIC = 0x49544342; //"ITCB"
+    static final int VERSION = 1;
+    static final int FLAG_ANALYZED = 1;
+    static final int HEADER_BYTES = 24;
+    static final int COUNT_OFFSET = 16;
+
+    private final Path file;
+    private final TextPreprocessor preprocessor;
+    private final DataOutputStream out;
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final DataOutputStream bodyOut = new DataOutputStream(body);
+    private long count;
+    private boolean finished;
+
+    //With a preprocessor every document's stemmed title and text are stored too, null stores the raw fields only
+    public BinaryCorpusWriter(Path file, TextPreprocessor preprocessor) throws IOException {
+        this.file = file;
+        this.preprocessor = preprocessor;
+        if (file.getParent() != null) Files.createDirectories(file.getParent());
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(preprocessor != null ? FLAG_ANALYZED : 0);
+        out.writeInt(preprocessor != null ? preprocessor.stopwordFingerprint() : 0);
+        out.writeLong(0);
+    }
+
+    public void write(GameDocument doc) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("Binary corpus " + file + " is already finished");
+        }
+        body.reset();
+        writeString(doc.getDocno());
+        writeString(doc.getTitle());
+        writeString(doc.getAuthor());
+        writeString(doc.getUrl());
+        writeString(doc.getPrice());
+        writeString(doc.getText());
+        if (preprocessor != null) {
+            writeString(preprocessor.preprocess(doc.getTitle()));
+            writeString(preprocessor.preprocess(doc.getText()));
+        }
+        out.writeInt(body.size());
+        body.writeTo(out);
+        count++;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        bodyOut.writeInt(bytes.length);
+        bodyOut.write(bytes);
+    }
+
+    //Mark the corpus complete after the last document: the count is only written here, so a conversion that
+    //fails before finish leaves count 0 and the reader rejects the corpus
+    public void finish() throws IOException {
+        out.flush();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(8).putLong(0, count), COUNT_OFFSET);
+        }
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,41 @@
+package com.itchsearch.util;
+
+import com.itchsearch.model.GameDocument;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+//Sequential source of games for IndexBuilderMain: a TRECTEXT file or a binary corpus from BinaryCorpusMain
+public interface CorpusReader extends AutoCloseable {
+
+    //Next document, null at the end of the corpus
+    GameDocument nextDocument() throws IOException;
+
+    //Stemmed title of the last document when the corpus stores its analysis, null to preprocess it
+    default String stemmedTitle() {
+        return null;
+    }
+
+    //Stemmed text of the last document when the corpus stores its analysis, null to preprocess it
+    default String stemmedText() {
+        return null;
+    }
+
+    @Override
+    void close() throws IOException;
+
+    //Binary corpus when the file starts with its magic, TRECTEXT otherwise. Stored analysis is only used
+    //when it was written with the same stopwords as preprocessor
+    static CorpusReader open(Path file, TextPreprocessor preprocessor) throws IOException {
+        int magic = 0;
+        try (InputStream in = Files.newInputStream(file)) {
+            if (Files.size(file) >= 4) magic = new DataInputStream(in).readInt();
+        }
+        return magic == BinaryCorpusWriter.MAGIC
+                ? new BinaryCorpusReader(file, preprocessor)
+                : new TrectextCorpusReader(file.toString());
+    }
+}
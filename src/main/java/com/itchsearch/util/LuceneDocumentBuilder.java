@@ -0,0 +1,110 @@
+package com.itchsearch.util;
+
+import com.itchsearch.model.GameDocument;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.KnnFloatVectorField;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.VectorSimilarityFunction;
+import org.apache.lucene.util.BytesRef;
+
+//Lucene document of a game, shared by IndexBuilderMain and the ingest API so both index the same fields
+//with the same TextPreprocessor analysis (the index writer itself only splits on whitespace)
+public class LuceneDocumentBuilder {
+
+    private final TextPreprocessor preprocessor;
+    private final FieldType contentType;
+    private final FieldType titleType;
+    private final FieldType originalContentType;
+
+    //withPositions stores term positions in CONTENT for phrase and proximity scoring
+    public LuceneDocumentBuilder(TextPreprocessor preprocessor, boolean withPositions) {
+        this.preprocessor = preprocessor;
+
+        //Create custom FieldType for CONTENT field with term vectors
+        contentType = new FieldType();
+        contentType.setIndexOptions(withPositions
+                ? IndexOptions.DOCS_AND_FREQS_AND_POSITIONS
+                : IndexOptions.DOCS_AND_FREQS);
+        contentType.setStored(true);
+        contentType.setStoreTermVectors(true);
+        contentType.setTokenized(true);
+        contentType.freeze();
+
+        //Create custom FieldType for stemmed TITLE used in fielded scoring, term vectors give title lengths
+        titleType = new FieldType();
+        titleType.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
+        titleType.setStored(false);
+        titleType.setStoreTermVectors(true);
+        titleType.setTokenized(true);
+        titleType.freeze();
+
+        //Create custom FieldType for CONTENT_ORIGINAL with no length limit
+        originalContentType = new FieldType();
+        originalContentType.setStored(true);
+        originalContentType.setTokenized(false);
+        originalContentType.setIndexOptions(IndexOptions.NONE);
+        originalContentType.freeze();
+    }
+
+    //group is the near-duplicate group (DUP_GROUP), search keeps only the best hit per group
+    public Document build(GameDocument doc, long group) {
+        return build(doc, group, null);
+    }
+
+    //Same, plus the game's vector for /api/similar when a vectorizer is given
+    public Document build(GameDocument doc, long group, RandomIndexVectorizer vectorizer) {
+        return build(doc, group, vectorizer, null, null);
+    }
+
+    //Same, with the stemmed title and text already analyzed (a binary corpus stores them), null preprocesses them
+    public Document build(GameDocument doc, long group, RandomIndexVectorizer vectorizer,
+                          String stemmedTitle, String stemmedText) {
+        Document luceneDoc = new Document();
+        luceneDoc.add(new StringField("DOCNO", doc.getDocno(), Field.Store.YES));
+        luceneDoc.add(new TextField("TITLE", doc.getTitle(), Field.Store.YES));
+        luceneDoc.add(new Field("TITLE_STEMMED",
+                stemmedTitle != null ? stemmedTitle : preprocessor.preprocess(doc.getTitle()), titleType));
+        luceneDoc.add(new StringField("AUTHOR", doc.getAuthor(), Field.Store.YES));
+        luceneDoc.add(new StringField("PRICE", PriceParser.toDisplay(doc.getPrice()), Field.Store.YES));
+
+        //Numeric price in cents, points for range filters and doc values for sorting
+        long priceCents = PriceParser.toCents(doc.getPrice());
+        luceneDoc.add(new LongPoint("PRICE_CENTS", priceCents));
+        luceneDoc.add(new NumericDocValuesField("PRICE_CENTS", priceCents));
+        luceneDoc.add(new StringField("URL", doc.getUrl(), Field.Store.YES));
+
+        //Author and platforms as sorted set doc values for facet counts, platforms also indexed for filtering.
+        //AUTHOR_FACET is separate because a field's doc values type must match on every document
+        if (!doc.getAuthor().isEmpty()) {
+            luceneDoc.add(new SortedSetDocValuesField("AUTHOR_FACET", new BytesRef(doc.getAuthor())));
+        }
+        for (String platform : PlatformExtractor.extract(doc.getText())) {
+            luceneDoc.add(new StringField("PLATFORM", platform, Field.Store.NO));
+            luceneDoc.add(new SortedSetDocValuesField("PLATFORM", new BytesRef(platform)));
+        }
+
+        luceneDoc.add(new NumericDocValuesField("DUP_GROUP", group));
+
+        //Store original content for display purposes without length limit
+        luceneDoc.add(new Field("CONTENT_ORIGINAL", doc.getText(), originalContentType));
+
+        //Preprocess content with Porter Stemmer for searching
+        String preprocessedContent = stemmedText != null ? stemmedText : preprocessor.preprocess(doc.getText());
+        luceneDoc.add(new Field("CONTENT", preprocessedContent, contentType));
+
+        //Unit vectors, so the dot product is their cosine
+        float[] vector = vectorizer != null ? vectorizer.vectorize(preprocessedContent) : null;
+        if (vector != null) {
+            luceneDoc.add(new KnnFloatVectorField(RandomIndexVectorizer.FIELD, vector,
+                    VectorSimilarityFunction.DOT_PRODUCT));
+        }
+        return luceneDoc;
+    }
+}
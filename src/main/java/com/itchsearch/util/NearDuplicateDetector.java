@@ -0,0 +1,170 @@
+package com.itchsearch.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+//Streaming near-duplicate grouping for the ingest path.
+//Each document gets a MinHash signature over word shingles of its text, split into LSH bands,
+//so a new document is only compared against earlier documents sharing a band bucket
+//(close to linear in the number of documents). Identical non-empty URLs always group together.
+//Group ids are assigned in ingest order, a group's id is taken by its first document.
+public class NearDuplicateDetector {
+
+    private static final int SHINGLE_SIZE = 3;
+    private static final int NUM_HASHES = 64;
+    private static final int BANDS = 16;
+    private static final int ROWS = NUM_HASHES / BANDS;
+
+    //Estimated Jaccard similarity a bucket candidate must reach to be a duplicate
+    public static final double DEFAULT_THRESHOLD = 0.9;
+
+    private final double threshold;
+    private final long[] seeds = new long[NUM_HASHES];
+
+    //Band hash -> documents (by ingest index) that fell into that bucket
+    private final List<Map<Long, List<Integer>>> buckets = new ArrayList<>();
+    private final Map<String, Integer> groupByUrl = new HashMap<>();
+    private final List<long[]> signatures = new ArrayList<>();
+    private final List<Integer> groups = new ArrayList<>();
+
+    private int duplicates = 0;
+
+    public NearDuplicateDetector() {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    public NearDuplicateDetector(double threshold) {
+        this.threshold = threshold;
+        long seed = 0x2545F4914F6CDD1DL;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            seed = mix(seed + i);
+            seeds[i] = seed;
+        }
+        for (int b = 0; b < BANDS; b++) {
+            buckets.add(new HashMap<>());
+        }
+    }
+
+    //Group id of the next document, equal to a previous document's group when it is a near-duplicate
+    public int assign(String url, String text) {
+        int index = groups.size();
+        long[] signature = signature(text);
+        int group = -1;
+
+        if (url != null && !url.isEmpty()) {
+            Integer urlGroup = groupByUrl.get(url);
+            if (urlGroup != null) group = urlGroup;
+        }
+
+        //Candidates from shared band buckets, verified against the full signature
+        long[] bandKeys = signature == null ? null : bandKeys(signature);
+        if (group < 0 && bandKeys != null) {
+            Set<Integer> seen = new HashSet<>();
+            for (int b = 0; b < BANDS && group < 0; b++) {
+                List<Integer> bucket = buckets.get(b).get(bandKeys[b]);
+                if (bucket == null) continue;
+                for (int candidate : bucket) {
+                    if (!seen.add(candidate)) continue;
+                    if (similarity(signature, signatures.get(candidate)) >= threshold) {
+                        group = groups.get(candidate);
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (group < 0) {
+            group = index;
+        } else {
+            duplicates++;
+        }
+
+        if (bandKeys != null) {
+            for (int b = 0; b < BANDS; b++) {
+                buckets.get(b).computeIfAbsent(bandKeys[b], key -> new ArrayList<>()).add(index);
+            }
+        }
+        if (url != null && !url.isEmpty()) {
+            groupByUrl.putIfAbsent(url, group);
+        }
+        signatures.add(signature);
+        groups.add(group);
+        return group;
+    }
+
+    //Whether the group id returned by assign() belongs to an earlier document
+    public boolean isDuplicate(int group) {
+        return group != groups.size() - 1;
+    }
+
+    public int getDuplicateCount() {
+        return duplicates;
+    }
+
+    public int getGroupCount() {
+        return groups.size() - duplicates;
+    }
+
+    // =============== SKETCHING =============== //
+    //MinHash signature over hashed word shingles, null when the text has no words
+    private long[] signature(String text) {
+        if (text == null) return null;
+        String[] words = text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+");
+        List<String> tokens = new ArrayList<>(words.length);
+        for (String word : words) {
+            if (!word.isEmpty()) tokens.add(word);
+        }
+        if (tokens.isEmpty()) return null;
+
+        long[] signature = new long[NUM_HASHES];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        int shingles = Math.max(1, tokens.size() - SHINGLE_SIZE + 1);
+        for (int s = 0; s < shingles; s++) {
+            long shingleHash = 0;
+            for (int w = s; w < Math.min(tokens.size(), s + SHINGLE_SIZE); w++) {
+                shingleHash = mix(shingleHash * 31 + tokens.get(w).hashCode());
+            }
+            for (int i = 0; i < NUM_HASHES; i++) {
+                long h = mix(shingleHash ^ seeds[i]);
+                if (h < signature[i]) signature[i] = h;
+            }
+        }
+        return signature;
+    }
+
+    private static long[] bandKeys(long[] signature) {
+        long[] keys = new long[BANDS];
+        for (int b = 0; b < BANDS; b++) {
+            long key = b;
+            for (int r = 0; r < ROWS; r++) {
+                key = mix(key * 31 + signature[b * ROWS + r]);
+            }
+            keys[b] = key;
+        }
+        return keys;
+    }
+
+    //Fraction of equal MinHash slots, an estimate of the shingle set Jaccard similarity
+    private static double similarity(long[] a, long[] b) {
+        if (b == null) return 0.0;
+        int equal = 0;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            if (a[i] == b[i]) equal++;
+        }
+        return (double) equal / NUM_HASHES;
+    }
+
+    //SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+    // ====================================== //
+}
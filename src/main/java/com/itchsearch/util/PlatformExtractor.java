@@ -0,0 +1,41 @@
+package com.itchsearch.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+//Extracts platforms from the "A downloadable game for Windows, macOS, and Linux" lead-in of a game's TEXT
+public class PlatformExtractor {
+
+    public static final String BROWSER = "Browser";
+
+    private static final String[] PLATFORMS = {"Windows", "macOS", "Linux", "Android", "iOS"};
+    private static final String PLATFORM_NAME = "(?:Windows|macOS|Linux|Android|iOS)";
+    private static final Pattern LEAD_IN = Pattern.compile(
+            "^An? downloadable [^.]{0,40}? for (" + PLATFORM_NAME + "(?:,? (?:and )?" + PLATFORM_NAME + ")*)");
+
+    //Browser builds embed a player instead of a download lead-in
+    private static final Pattern BROWSER_HINT = Pattern.compile(
+            "Play in browser|Your browser does not support|\\bHTML5\\b|\\bWebGL\\b");
+
+    private PlatformExtractor() {}
+
+    public static List<String> extract(String text) {
+        List<String> platforms = new ArrayList<>();
+        if (text == null || text.isEmpty()) return platforms;
+
+        Matcher matcher = LEAD_IN.matcher(text);
+        if (matcher.find()) {
+            String list = matcher.group(1);
+            for (String platform : PLATFORMS) {
+                if (list.contains(platform)) platforms.add(platform);
+            }
+        }
+
+        if (BROWSER_HINT.matcher(text).find()) {
+            platforms.add(BROWSER);
+        }
+        return platforms;
+    }
+}
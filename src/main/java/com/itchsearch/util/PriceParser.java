@@ -0,0 +1,34 @@
+package com.itchsearch.util;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+//Parses the display price split off the TITLE ("$4.99", "$8.99-10%", "$5In bundle") into cents
+public class PriceParser {
+
+    public static final String FREE = "FREE";
+
+    private static final Pattern DOLLARS = Pattern.compile("\\$\\s*([0-9]+)(?:\\.([0-9]{1,2}))?");
+
+    private PriceParser() {}
+
+    //Price in cents, games without a listed price are free and return 0
+    public static long toCents(String price) {
+        if (price == null) return 0;
+
+        Matcher matcher = DOLLARS.matcher(price);
+        if (!matcher.find()) return 0;
+
+        long cents = Long.parseLong(matcher.group(1)) * 100;
+        String fraction = matcher.group(2);
+        if (fraction != null) {
+            cents += Long.parseLong(fraction.length() == 1 ? fraction + "0" : fraction);
+        }
+        return cents;
+    }
+
+    //Display price with free games shown explicitly
+    public static String toDisplay(String price) {
+        return toCents(price) == 0 ? FREE : price;
+    }
+}
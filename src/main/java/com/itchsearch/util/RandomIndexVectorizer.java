@@ -0,0 +1,83 @@
+package com.itchsearch.util;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+//Dense game vectors for "similar games" by random indexing, computed locally with no model.
+//Every stem has a fixed sparse random vector (a few +1/-1 entries at positions picked by hashing the stem,
+//so nothing is stored), and a game's vector is the tf-idf weighted sum of its CONTENT stems' vectors,
+//normalized to unit length. The random vectors are nearly orthogonal, so the dot product of two game
+//vectors approximates the cosine of their tf-idf vectors
+public class RandomIndexVectorizer {
+
+    //KnnFloatVectorField of the game vectors, searched with an HNSW graph
+    public static final String FIELD = "VECTOR";
+    public static final int DEFAULT_DIMENSIONS = 256;
+    //Non-zero entries of a stem's random vector
+    private static final int NONZEROS = 8;
+
+    private final int dimensions;
+    private final ToIntFunction<String> docFreq;
+    private final int docCount;
+
+    //docFreq gives the number of games containing a stem, out of docCount
+    public RandomIndexVectorizer(int dimensions, ToIntFunction<String> docFreq, int docCount) {
+        this.dimensions = dimensions;
+        this.docFreq = docFreq;
+        this.docCount = docCount;
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    //Vector of preprocessed (stemmed, space separated) text, null when it has no terms
+    public float[] vectorize(String preprocessedText) {
+        Map<String, Integer> termFreqs = new HashMap<>();
+        for (String term : preprocessedText.split(" ")) {
+            if (!term.isEmpty()) termFreqs.merge(term, 1, Integer::sum);
+        }
+        return vectorize(termFreqs);
+    }
+
+    //Vector of a bag of stems with their frequencies, null when it is empty
+    public float[] vectorize(Map<String, Integer> termFreqs) {
+        if (termFreqs.isEmpty()) {
+            return null;
+        }
+
+        float[] vector = new float[dimensions];
+        for (Map.Entry<String, Integer> entry : termFreqs.entrySet()) {
+            double weight = (1 + Math.log(entry.getValue())) * idf(entry.getKey());
+            BytesRef bytes = new BytesRef(entry.getKey());
+            for (int i = 0; i < NONZEROS; i++) {
+                int hash = StringHelper.murmurhash3_x86_32(bytes, i);
+                //Low bit is the sign, the rest the position
+                vector[Math.floorMod(hash >> 1, dimensions)] += (hash & 1) == 0 ? weight : -weight;
+            }
+        }
+
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        if (norm == 0) {
+            return null;
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] *= scale;
+        }
+        return vector;
+    }
+
+    //Stems unknown to the collection (a new word in an ingested game) count as in one game
+    private double idf(String term) {
+        int df = Math.max(1, docFreq.applyAsInt(term));
+        return Math.log(1 + (double) docCount / df);
+    }
+}
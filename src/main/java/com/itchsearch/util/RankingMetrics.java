@@ -0,0 +1,137 @@
+package com.itchsearch.util;
+
+import java.util.*;
+
+//Ranked retrieval metrics over a ranking (docnos, best first) and graded judgments (relevance > 0 is relevant),
+//plus ranking comparison measures used to check two scorers for equivalence.
+//The crawl reuses some DOCNOs, so a docno is only credited at its first rank (as trec_eval does).
+public class RankingMetrics {
+
+    private RankingMetrics() {}
+
+    //Ranking without repeated docnos, first occurrence kept
+    public static List<String> distinct(List<String> ranking) {
+        return new ArrayList<>(new LinkedHashSet<>(ranking));
+    }
+
+    public static double averagePrecision(List<String> ranking, Map<String, Integer> judgments) {
+        int relevantTotal = countRelevant(judgments);
+        if (relevantTotal == 0) return 0.0;
+
+        int relevantSeen = 0;
+        double sum = 0.0;
+        for (int i = 0; i < ranking.size(); i++) {
+            if (isRelevant(judgments, ranking.get(i))) {
+                relevantSeen++;
+                sum += (double) relevantSeen / (i + 1);
+            }
+        }
+        return sum / relevantTotal;
+    }
+
+    //Graded gain 2^rel - 1 with log2(rank + 1) discount, normalized by the ideal ordering of the judgments
+    public static double ndcg(List<String> ranking, Map<String, Integer> judgments, int k) {
+        double dcg = 0.0;
+        for (int i = 0; i < Math.min(k, ranking.size()); i++) {
+            int rel = judgments.getOrDefault(ranking.get(i), 0);
+            if (rel > 0) dcg += (Math.pow(2, rel) - 1) / log2(i + 2);
+        }
+
+        List<Integer> ideal = new ArrayList<>(judgments.values());
+        ideal.sort(Comparator.reverseOrder());
+        double idcg = 0.0;
+        for (int i = 0; i < Math.min(k, ideal.size()); i++) {
+            if (ideal.get(i) > 0) idcg += (Math.pow(2, ideal.get(i)) - 1) / log2(i + 2);
+        }
+        return idcg == 0.0 ? 0.0 : dcg / idcg;
+    }
+
+    public static double reciprocalRank(List<String> ranking, Map<String, Integer> judgments) {
+        for (int i = 0; i < ranking.size(); i++) {
+            if (isRelevant(judgments, ranking.get(i))) return 1.0 / (i + 1);
+        }
+        return 0.0;
+    }
+
+    public static double precision(List<String> ranking, Map<String, Integer> judgments, int k) {
+        int relevant = 0;
+        for (int i = 0; i < Math.min(k, ranking.size()); i++) {
+            if (isRelevant(judgments, ranking.get(i))) relevant++;
+        }
+        return (double) relevant / k;
+    }
+
+    public static double recall(List<String> ranking, Map<String, Integer> judgments, int k) {
+        int relevantTotal = countRelevant(judgments);
+        if (relevantTotal == 0) return 0.0;
+
+        int relevant = 0;
+        for (int i = 0; i < Math.min(k, ranking.size()); i++) {
+            if (isRelevant(judgments, ranking.get(i))) relevant++;
+        }
+        return (double) relevant / relevantTotal;
+    }
+
+    // =========== RANKING COMPARISON =========== //
+    //First rank (1-based) where the two rankings differ, 0 when they are identical
+    public static int firstDifference(List<String> a, List<String> b) {
+        for (int i = 0; i < Math.max(a.size(), b.size()); i++) {
+            if (i >= a.size() || i >= b.size() || !a.get(i).equals(b.get(i))) return i + 1;
+        }
+        return 0;
+    }
+
+    //Fraction of the top k of a that is also in the top k of b
+    public static double overlap(List<String> a, List<String> b, int k) {
+        Set<String> topB = new HashSet<>(b.subList(0, Math.min(k, b.size())));
+        int depth = Math.min(k, a.size());
+        if (depth == 0) return topB.isEmpty() ? 1.0 : 0.0;
+
+        int shared = 0;
+        for (int i = 0; i < depth; i++) {
+            if (topB.contains(a.get(i))) shared++;
+        }
+        return (double) shared / Math.max(depth, topB.size());
+    }
+
+    //Kendall's tau over the documents both rankings contain, 1.0 when they order them the same way
+    public static double kendallTau(List<String> a, List<String> b) {
+        Map<String, Integer> rankInB = new HashMap<>();
+        for (int i = 0; i < b.size(); i++) rankInB.put(b.get(i), i);
+
+        List<Integer> order = new ArrayList<>();
+        for (String doc : a) {
+            Integer rank = rankInB.get(doc);
+            if (rank != null) order.add(rank);
+        }
+        int n = order.size();
+        if (n < 2) return 1.0;
+
+        long concordant = 0;
+        long discordant = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                if (order.get(i) < order.get(j)) concordant++;
+                else discordant++;
+            }
+        }
+        return (double) (concordant - discordant) / (concordant + discordant);
+    }
+    // ====================================== //
+
+    private static boolean isRelevant(Map<String, Integer> judgments, String docno) {
+        return judgments.getOrDefault(docno, 0) > 0;
+    }
+
+    private static int countRelevant(Map<String, Integer> judgments) {
+        int count = 0;
+        for (int rel : judgments.values()) {
+            if (rel > 0) count++;
+        }
+        return count;
+    }
+
+    private static double log2(double x) {
+        return Math.log(x) / Math.log(2);
+    }
+}
@@ -0,0 +1,23 @@
+package com.itchsearch.util;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
+
+//Assigns games to index shards by a hash of their DOCNO, shared by IndexBuilderMain and the ingest API
+//so a replaced or deleted docno is always looked up in the shard it was built into
+public class ShardRouter {
+
+    //Shard directories under data/index (and stats directories under data/stats) of a sharded build
+    public static final String SHARD_PREFIX = "shard-";
+
+    private ShardRouter() {}
+
+    //Murmur3 rather than String.hashCode, whose low bits spread sequential docnos unevenly
+    public static int shardOf(String docno, int shards) {
+        return Math.floorMod(StringHelper.murmurhash3_x86_32(new BytesRef(docno), 0), shards);
+    }
+
+    public static String shardName(int shard) {
+        return SHARD_PREFIX + shard;
+    }
+}
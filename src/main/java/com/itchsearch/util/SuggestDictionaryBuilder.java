@@ -0,0 +1,155 @@
+package com.itchsearch.util;
+
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.fst.WFSTCompletionLookup;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+//Collects titles and stemmed vocabulary while indexing and writes the autocomplete FSTs
+public class SuggestDictionaryBuilder {
+
+    public static final String TITLES_FILE = "titles.fst";
+    public static final String TERMS_FILE = "terms.fst";
+
+    //Separates the lowercase lookup key from the display title inside one FST key
+    public static final char DISPLAY_SEPARATOR = '\u001F';
+
+    private static final int MIN_TERM_DOC_FREQ = 3;
+    private static final int MIN_TERM_LENGTH = 3;
+
+    private final TextPreprocessor preprocessor;
+
+    //Lowercase title -> original spelling -> number of documents
+    private final Map<String, Map<String, Integer>> titles = new HashMap<>();
+
+    //Stem -> number of documents containing it
+    private final Map<String, Integer> stemDocFreq = new HashMap<>();
+
+    //Stem -> surface word -> occurrences, used to show a real word instead of the stem
+    private final Map<String, Map<String, Integer>> stemSurfaces = new HashMap<>();
+
+    public SuggestDictionaryBuilder(TextPreprocessor preprocessor) {
+        this.preprocessor = preprocessor;
+    }
+
+    //Record the title and CONTENT vocabulary of one document
+    public void addDocument(String title, String text) {
+        String trimmedTitle = title == null ? "" : title.trim();
+        if (!trimmedTitle.isEmpty()) {
+            titles.computeIfAbsent(trimmedTitle.toLowerCase(), k -> new HashMap<>())
+                    .merge(trimmedTitle, 1, Integer::sum);
+        }
+
+        if (text == null) return;
+
+        //Same tokenization as TextPreprocessor.preprocess
+        Set<String> docStems = new HashSet<>();
+        for (String token : text.split("[^a-zA-Z0-9]+")) {
+            if (token.length() < MIN_TERM_LENGTH) continue;
+
+            String lower = token.toLowerCase();
+            if (preprocessor.isStopword(lower) || isNumber(lower)) continue;
+
+            String stem = preprocessor.stem(lower);
+            if (stem.isEmpty()) continue;
+
+            docStems.add(stem);
+            stemSurfaces.computeIfAbsent(stem, k -> new HashMap<>()).merge(lower, 1, Integer::sum);
+        }
+
+        for (String stem : docStems) {
+            stemDocFreq.merge(stem, 1, Integer::sum);
+        }
+    }
+
+    //Build both FSTs and store them in the suggest directory
+    public void write(Path suggestDir) throws IOException {
+        Files.createDirectories(suggestDir);
+
+        //Titles keyed by lowercase text, weighted by how many documents carry the title
+        Map<String, Long> titleWeights = new HashMap<>();
+        for (Map.Entry<String, Map<String, Integer>> entry : titles.entrySet()) {
+            String display = mostFrequent(entry.getValue());
+            long count = entry.getValue().values().stream().mapToLong(Integer::longValue).sum();
+            titleWeights.put(entry.getKey() + DISPLAY_SEPARATOR + display, count);
+        }
+
+        //Vocabulary keyed by the most common surface form of each frequent stem, weighted by df
+        Map<String, Long> termWeights = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : stemDocFreq.entrySet()) {
+            if (entry.getValue() < MIN_TERM_DOC_FREQ) continue;
+            String surface = mostFrequent(stemSurfaces.get(entry.getKey()));
+            termWeights.merge(surface, (long) entry.getValue(), Math::max);
+        }
+
+        buildLookup(suggestDir, "titles", titleWeights, TITLES_FILE);
+        buildLookup(suggestDir, "terms", termWeights, TERMS_FILE);
+
+        System.out.println("Suggest dictionary: " + titleWeights.size() + " titles, "
+                + termWeights.size() + " terms written to: " + suggestDir);
+    }
+
+    //Build a weighted FST, the suggest directory doubles as scratch space for sorting
+    private static void buildLookup(Path suggestDir, String name, Map<String, Long> weights, String fileName)
+            throws IOException {
+        try (FSDirectory tempDir = FSDirectory.open(suggestDir)) {
+            WFSTCompletionLookup lookup = new WFSTCompletionLookup(tempDir, name);
+            lookup.build(iterate(weights));
+            lookup.store(Files.newOutputStream(suggestDir.resolve(fileName)));
+        }
+    }
+
+    //Feed key/weight pairs to the suggester without payloads or contexts
+    private static InputIterator iterate(Map<String, Long> weights) {
+        Iterator<Map.Entry<String, Long>> entries = weights.entrySet().iterator();
+        return new InputIterator() {
+            private long weight;
+
+            @Override
+            public BytesRef next() {
+                if (!entries.hasNext()) return null;
+                Map.Entry<String, Long> entry = entries.next();
+                weight = entry.getValue();
+                return new BytesRef(entry.getKey());
+            }
+
+            @Override
+            public long weight() { return weight; }
+
+            @Override
+            public BytesRef payload() { return null; }
+
+            @Override
+            public boolean hasPayloads() { return false; }
+
+            @Override
+            public Set<BytesRef> contexts() { return null; }
+
+            @Override
+            public boolean hasContexts() { return false; }
+        };
+    }
+
+    private static String mostFrequent(Map<String, Integer> counts) {
+        return counts.entrySet().stream()
+                .max(Map.Entry.<String, Integer>comparingByValue().thenComparing(Map.Entry.comparingByKey()))
+                .map(Map.Entry::getKey)
+                .orElse("");
+    }
+
+    private static boolean isNumber(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            if (!Character.isDigit(token.charAt(i))) return false;
+        }
+        return true;
+    }
+}
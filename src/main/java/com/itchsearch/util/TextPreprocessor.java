@@ -58,11 +58,7 @@ public class TextPreprocessor {
 
             if (stopwords.contains(token)) continue;
 
-            Stemmer stemmer = new Stemmer();
-            char[] chars = token.toCharArray();
-            stemmer.add(chars, chars.length);
-            stemmer.stem();
-            String stemmedToken = stemmer.toString();
+            String stemmedToken = stem(token);
 
             if (!stemmedToken.isEmpty()) {
                 if (processed.length() > 0) {
@@ -75,4 +71,23 @@ public class TextPreprocessor {
 
         return processed.toString();
     }
-}
\ No newline at end of file
+
+    //Check whether a lowercase token is a stopword
+    public boolean isStopword(String token) {
+        return stopwords.contains(token);
+    }
+
+    //Hash of the stopword list, binary corpora store it with their analysis to detect a changed list
+    public int stopwordFingerprint() {
+        return stopwords.hashCode();
+    }
+
+    //Apply Porter Stemmer to a single lowercase token
+    public String stem(String token) {
+        Stemmer stemmer = new Stemmer();
+        char[] chars = token.toCharArray();
+        stemmer.add(chars, chars.length);
+        stemmer.stem();
+        return stemmer.toString();
+    }
+}
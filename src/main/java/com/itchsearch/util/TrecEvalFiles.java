@@ -0,0 +1,96 @@
+package com.itchsearch.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+//Readers and writer for TREC evaluation files: topics, qrels and run files
+public class TrecEvalFiles {
+
+    private static final Pattern TOPIC = Pattern.compile("<top>(.*?)</top>", Pattern.DOTALL);
+    private static final Pattern NUM = Pattern.compile("<num>\\s*(?:Number:)?\\s*(\\S+)");
+    private static final Pattern TITLE = Pattern.compile("<title>\\s*(?:Topic:)?\\s*(.*?)\\s*(?=<|$)", Pattern.DOTALL);
+
+    private TrecEvalFiles() {}
+
+    //Topic id -> query in file order. Accepts TREC <top> blocks (query from <title>) or "id<TAB>query" lines
+    public static Map<String, String> readTopics(Reader in) throws IOException {
+        String text = readAll(in);
+        Map<String, String> topics = new LinkedHashMap<>();
+
+        Matcher block = TOPIC.matcher(text);
+        while (block.find()) {
+            Matcher num = NUM.matcher(block.group(1));
+            Matcher title = TITLE.matcher(block.group(1));
+            if (num.find() && title.find()) {
+                topics.put(num.group(1), title.group(1).replaceAll("\\s+", " ").trim());
+            }
+        }
+        if (!topics.isEmpty()) {
+            return topics;
+        }
+
+        for (String line : text.split("\\R")) {
+            int tab = line.indexOf('\t');
+            if (line.isBlank() || line.startsWith("#") || tab < 0) continue;
+            topics.put(line.substring(0, tab).trim(), line.substring(tab + 1).trim());
+        }
+        return topics;
+    }
+
+    //Topic id -> (docno -> graded relevance) from "topic iteration docno relevance" lines
+    public static Map<String, Map<String, Integer>> readQrels(Reader in) throws IOException {
+        Map<String, Map<String, Integer>> qrels = new HashMap<>();
+        for (String line : readAll(in).split("\\R")) {
+            String[] cols = line.trim().split("\\s+");
+            if (cols.length < 4) continue;
+            qrels.computeIfAbsent(cols[0], topic -> new HashMap<>())
+                    .put(docno(cols, 2, cols.length - 1), Integer.parseInt(cols[cols.length - 1]));
+        }
+        return qrels;
+    }
+
+    //Topic id -> docnos in rank order from "topic Q0 docno rank score tag" lines
+    public static Map<String, List<String>> readRun(Reader in) throws IOException {
+        Map<String, TreeMap<Integer, String>> ranked = new LinkedHashMap<>();
+        for (String line : readAll(in).split("\\R")) {
+            String[] cols = line.trim().split("\\s+");
+            if (cols.length < 6) continue;
+            ranked.computeIfAbsent(cols[0], topic -> new TreeMap<>())
+                    .put(Integer.parseInt(cols[cols.length - 3]), docno(cols, 2, cols.length - 3));
+        }
+
+        Map<String, List<String>> run = new LinkedHashMap<>();
+        ranked.forEach((topic, docs) -> run.put(topic, new ArrayList<>(docs.values())));
+        return run;
+    }
+
+    //One line per ranked document, ranks start at 1
+    public static void writeRun(PrintWriter out, String topic, List<String> docnos, List<Double> scores, String tag) {
+        for (int i = 0; i < docnos.size(); i++) {
+            out.println(topic + " Q0 " + docnos.get(i) + " " + (i + 1) + " "
+                    + String.format(Locale.ROOT, "%.6f", scores.get(i)) + " " + tag);
+        }
+    }
+
+    //Crawled DOCNOs can contain spaces (e.g. "Adriaan de Jongh_1"), so the docno is every column
+    //between the fixed leading and trailing ones
+    private static String docno(String[] cols, int from, int to) {
+        return String.join(" ", Arrays.copyOfRange(cols, from, to));
+    }
+
+    private static String readAll(Reader in) throws IOException {
+        StringBuilder text = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(in)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                text.append(line).append('\n');
+            }
+        }
+        return text.toString();
+    }
+}
@@ -8,7 +8,7 @@ import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 
 //Reads game data from TRECTEXT format file
-public class TrectextCorpusReader implements AutoCloseable {
+public class TrectextCorpusReader implements CorpusReader {
 
     private BufferedReader br;
     private FileInputStream instream;
@@ -21,6 +21,7 @@ public class TrectextCorpusReader implements AutoCloseable {
     }
 
     //Read next document from TRECTEXT file, return null if end of file
+    @Override
     public GameDocument nextDocument() throws IOException {
         String line;
         StringBuilder textBuilder = new StringBuilder();